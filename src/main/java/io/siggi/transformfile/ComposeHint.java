@@ -0,0 +1,103 @@
+package io.siggi.transformfile;
+
+import io.siggi.transformfile.exception.TransformFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// the chunks of an earlier xfr of the same destination, to guess where each part of the destination comes from
+final class ComposeHint {
+    private final DataChunk[] chunks;
+    // for each origin of the composer, the chunks reading from it, by offset in the origin
+    private final DataChunk[][] byOrigin;
+    private final int[] originIndex;
+
+    private ComposeHint(DataChunk[] chunks, DataChunk[][] byOrigin, int[] originIndex) {
+        this.chunks = chunks;
+        this.byOrigin = byOrigin;
+        this.originIndex = originIndex;
+    }
+
+    // origins that the hint doesn't read from, or that are null, are never hinted
+    static ComposeHint load(File hint, File[] origins) throws IOException, TransformFileException {
+        try (TransformFile tf = TransformFile.open(hint)) {
+            tf.loadChunks();
+            int[] originIndex = new int[tf.files.length];
+            Arrays.fill(originIndex, -1);
+            for (int i = 1; i < tf.files.length; i++) {
+                File dependency = tf.getDependencyFile(i).getCanonicalFile();
+                for (int j = 0; j < origins.length; j++) {
+                    if (origins[j] != null && origins[j].getCanonicalFile().equals(dependency)) {
+                        originIndex[i] = j;
+                        break;
+                    }
+                }
+            }
+            List<DataChunk> usable = new ArrayList<>();
+            List<List<DataChunk>> byOrigin = new ArrayList<>();
+            for (int j = 0; j < origins.length; j++) {
+                byOrigin.add(new ArrayList<>());
+            }
+            for (DataChunk chunk : tf.chunks) {
+                if (chunk.file < 1 || chunk.length == 0L || originIndex[chunk.file] == -1) continue;
+                usable.add(chunk);
+                byOrigin.get(originIndex[chunk.file]).add(chunk);
+            }
+            DataChunk[] chunks = usable.toArray(new DataChunk[usable.size()]);
+            Arrays.sort(chunks, Comparator.comparingLong(c -> c.transformedOffset));
+            DataChunk[][] byOriginArray = new DataChunk[origins.length][];
+            for (int j = 0; j < origins.length; j++) {
+                byOriginArray[j] = byOrigin.get(j).toArray(new DataChunk[byOrigin.get(j).size()]);
+                Arrays.sort(byOriginArray[j], Comparator.comparingLong(c -> c.offset));
+            }
+            return new ComposeHint(chunks, byOriginArray, originIndex);
+        }
+    }
+
+    // the chunk covering position in the old output, or null
+    DataChunk chunkAt(long position) {
+        int low = 0;
+        int high = chunks.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (chunks[mid].transformedOffset <= position) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found == -1) return null;
+        DataChunk chunk = chunks[found];
+        return chunk.transformedOffset + chunk.length > position ? chunk : null;
+    }
+
+    int originIndex(DataChunk chunk) {
+        return originIndex[chunk.file];
+    }
+
+    // where the old output had the byte at offset in the given origin, or -1
+    long oldPosition(int origin, long offset) {
+        DataChunk[] chunks = byOrigin[origin];
+        int low = 0;
+        int high = chunks.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (chunks[mid].offset <= offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found == -1) return -1L;
+        DataChunk chunk = chunks[found];
+        if (chunk.offset + chunk.length <= offset) return -1L;
+        return chunk.transformedOffset + (offset - chunk.offset);
+    }
+}
@@ -0,0 +1,168 @@
+package io.siggi.transformfile;
+
+import java.io.File;
+
+public class ComposeOptions {
+    private long lookahead = 0L;
+    private long lookbehind = -1L;
+    private int matchSize = 512;
+    private boolean copyNonRedundantData = true;
+    private boolean likeConcatenation = false;
+    private int segments = 1;
+    private long integrityBlockSize = 0L;
+    private boolean selfReferences = false;
+    private File hint = null;
+    private int candidates = 1;
+    private boolean fillRuns = false;
+    private boolean optimized = false;
+    private long indexGranularity = 0L;
+    private long seekCost = 4096L;
+    private boolean adaptiveOrder = false;
+    private int coldBudget = 0;
+
+    public long getLookahead() {
+        return lookahead;
+    }
+
+    public void setLookahead(long lookahead) {
+        this.lookahead = lookahead;
+    }
+
+    public long getLookbehind() {
+        return lookbehind;
+    }
+
+    public void setLookbehind(long lookbehind) {
+        this.lookbehind = lookbehind;
+    }
+
+    public int getMatchSize() {
+        return matchSize;
+    }
+
+    public void setMatchSize(int matchSize) {
+        if (matchSize < 1) throw new IllegalArgumentException("matchSize must be at least 1");
+        this.matchSize = matchSize;
+    }
+
+    public boolean isCopyNonRedundantData() {
+        return copyNonRedundantData;
+    }
+
+    public void setCopyNonRedundantData(boolean copyNonRedundantData) {
+        this.copyNonRedundantData = copyNonRedundantData;
+    }
+
+    public boolean isLikeConcatenation() {
+        return likeConcatenation;
+    }
+
+    public void setLikeConcatenation(boolean likeConcatenation) {
+        this.likeConcatenation = likeConcatenation;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public void setSegments(int segments) {
+        this.segments = Math.max(1, segments);
+    }
+
+    public long getIntegrityBlockSize() {
+        return integrityBlockSize;
+    }
+
+    // 0 to not write an integrity packet
+    public void setIntegrityBlockSize(long integrityBlockSize) {
+        if (integrityBlockSize < 0L) throw new IllegalArgumentException("Negative block size");
+        this.integrityBlockSize = integrityBlockSize;
+    }
+
+    public boolean isSelfReferences() {
+        return selfReferences;
+    }
+
+    // lets the output copy earlier parts of itself when nothing in the origins matches, needs xfr version 2
+    public void setSelfReferences(boolean selfReferences) {
+        this.selfReferences = selfReferences;
+    }
+
+    public File getHint() {
+        return hint;
+    }
+
+    // an earlier xfr of the same destination, its chunks are checked first before searching the origins
+    public void setHint(File hint) {
+        this.hint = hint;
+    }
+
+    public int getCandidates() {
+        return candidates;
+    }
+
+    // how many matches to gather for each block before picking one, 1 takes the first match
+    public void setCandidates(int candidates) {
+        this.candidates = Math.max(1, candidates);
+    }
+
+    public long getSeekCost() {
+        return seekCost;
+    }
+
+    // how many bytes of literal data a seek away from where the last chunk left off is considered to cost
+    public void setSeekCost(long seekCost) {
+        if (seekCost < 0L) throw new IllegalArgumentException("Negative seek cost");
+        this.seekCost = seekCost;
+    }
+
+    public boolean isFillRuns() {
+        return fillRuns;
+    }
+
+    // stores runs of a single byte as fill chunks, which needs xfr version 3
+    public void setFillRuns(boolean fillRuns) {
+        this.fillRuns = fillRuns;
+    }
+
+    public boolean isOptimized() {
+        return optimized;
+    }
+
+    // writes the optimized layout directly instead of needing an optimize afterwards, ignored when non redundant data
+    // isn't copied, since the address index goes after it
+    public void setOptimized(boolean optimized) {
+        this.optimized = optimized;
+    }
+
+    public long getIndexGranularity() {
+        return indexGranularity;
+    }
+
+    // the address index of the optimized layout, as for TransformFileOptimizer
+    public void setIndexGranularity(long indexGranularity) {
+        this.indexGranularity = indexGranularity;
+    }
+
+    public boolean isAdaptiveOrder() {
+        return adaptiveOrder;
+    }
+
+    // searches the origin of the last match first, then the others by how often they've matched recently, instead of
+    // in the order they were given, likeConcatenation is ignored when this is set
+    public void setAdaptiveOrder(boolean adaptiveOrder) {
+        this.adaptiveOrder = adaptiveOrder;
+    }
+
+    public int getColdBudget() {
+        return coldBudget;
+    }
+
+    // with adaptiveOrder, only search an origin every coldBudget-th block once it has been searched this many times in a
+    // row without a match, except the origin of the last match, and every origin is searched when all of them are cold,
+    // 0 searches every origin for every block
+    public void setColdBudget(int coldBudget) {
+        if (coldBudget < 0) throw new IllegalArgumentException("Negative cold budget");
+        this.coldBudget = coldBudget;
+    }
+}
@@ -5,6 +5,10 @@ import java.io.IOException;
 import java.io.InputStream;
 
 public final class DataChunk extends PacketDataChunk {
+    // file index for chunks that copy earlier output, offset is then an offset in the output
+    public static final int OUTPUT = -1;
+    // file index for chunks that repeat one byte, offset is then the value of the byte
+    public static final int FILL = -2;
     public final long transformedOffset;
     public final int file;
     public final long offset;
@@ -0,0 +1,144 @@
+package io.siggi.transformfile;
+
+import io.siggi.transformfile.io.RandomAccessDataChannel;
+import io.siggi.transformfile.io.RandomAccessInputStream;
+import io.siggi.transformfile.packet.types.PacketIntegrity;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public final class MerkleTree {
+    public static final String DEFAULT_ALGORITHM = "SHA-256";
+    public static final long DEFAULT_BLOCK_SIZE = 1048576L;
+
+    private MerkleTree() {
+    }
+
+    static MessageDigest digest(String algorithm) throws IOException {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unsupported hash algorithm " + algorithm, e);
+        }
+    }
+
+    public static long blockCount(long length, long blockSize) {
+        return (length + blockSize - 1L) / blockSize;
+    }
+
+    static byte[] hashBlock(MessageDigest digest, InputStream in, long length, byte[] buffer) throws IOException {
+        digest.reset();
+        long left = length;
+        while (left > 0L) {
+            int c = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+            if (c == -1) throw new IOException("End of stream");
+            digest.update(buffer, 0, c);
+            left -= c;
+        }
+        return digest.digest();
+    }
+
+    // leaves are hashed as they are, each level above hashes the concatenation of two children,
+    // and a node without a sibling is carried up to the next level unchanged
+    public static byte[] root(String algorithm, byte[][] leaves) throws IOException {
+        MessageDigest digest = digest(algorithm);
+        if (leaves.length == 0) return digest.digest();
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            byte[][] next = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < next.length; i++) {
+                int left = i * 2;
+                if (left + 1 == level.length) {
+                    next[i] = level[left];
+                    continue;
+                }
+                digest.reset();
+                digest.update(level[left]);
+                digest.update(level[left + 1]);
+                next[i] = digest.digest();
+            }
+            level = next;
+        }
+        return level[0];
+    }
+
+    public static PacketIntegrity create(String algorithm, long blockSize, byte[][] leaves) throws IOException {
+        return new PacketIntegrity(algorithm, blockSize, leaves, root(algorithm, leaves));
+    }
+
+    public static PacketIntegrity hash(InputStream in, long length, long blockSize) throws IOException {
+        MessageDigest digest = digest(DEFAULT_ALGORITHM);
+        byte[] buffer = new byte[65536];
+        byte[][] leaves = new byte[(int) blockCount(length, blockSize)][];
+        for (int i = 0; i < leaves.length; i++) {
+            long blockLength = Math.min(blockSize, length - (i * blockSize));
+            leaves[i] = hashBlock(digest, in, blockLength, buffer);
+        }
+        return create(DEFAULT_ALGORITHM, blockSize, leaves);
+    }
+
+    public static PacketIntegrity hash(File file, long blockSize, int threads) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            byte[][] leaves = new byte[(int) blockCount(length, blockSize)][];
+            runParallel(threads, leaves.length, (first, last) -> {
+                MessageDigest digest = digest(DEFAULT_ALGORITHM);
+                byte[] buffer = new byte[65536];
+                InputStream in = new RandomAccessInputStream(new RandomAccessDataChannel(channel), first * blockSize, false);
+                for (int i = first; i < last; i++) {
+                    long blockLength = Math.min(blockSize, length - (i * blockSize));
+                    leaves[i] = hashBlock(digest, in, blockLength, buffer);
+                }
+            });
+            return create(DEFAULT_ALGORITHM, blockSize, leaves);
+        }
+    }
+
+    @FunctionalInterface
+    interface BlockRangeTask {
+        void run(int first, int last) throws IOException;
+    }
+
+    // splits [0, count) into one contiguous range per thread
+    static void runParallel(int threads, int count, BlockRangeTask task) throws IOException {
+        threads = Math.max(1, Math.min(threads, count));
+        if (threads == 1) {
+            task.run(0, count);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                int first = (int) ((long) count * i / threads);
+                int last = (int) ((long) count * (i + 1) / threads);
+                futures.add(executor.submit(() -> {
+                    task.run(first, last);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
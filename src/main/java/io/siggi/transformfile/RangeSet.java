@@ -0,0 +1,35 @@
+package io.siggi.transformfile;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+final class RangeSet {
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+    // ranges separated by a gap smaller than this are merged together
+    private final long mergeDistance;
+
+    RangeSet(long mergeDistance) {
+        this.mergeDistance = mergeDistance;
+    }
+
+    void add(long start, long end) {
+        if (end <= start) return;
+        Map.Entry<Long, Long> lower = ranges.floorEntry(start);
+        if (lower != null && lower.getValue() + mergeDistance > start) {
+            start = lower.getKey();
+            end = Math.max(end, lower.getValue());
+        }
+        Map.Entry<Long, Long> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() < end + mergeDistance) {
+            ranges.remove(next.getKey());
+            end = Math.max(end, next.getValue());
+        }
+        ranges.put(start, end);
+    }
+
+    long coveredEnd(long position) {
+        Map.Entry<Long, Long> entry = ranges.floorEntry(position);
+        if (entry == null || entry.getValue() <= position) return -1L;
+        return entry.getValue();
+    }
+}
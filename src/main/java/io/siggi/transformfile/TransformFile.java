@@ -2,9 +2,10 @@ package io.siggi.transformfile;
 
 import io.siggi.transformfile.exception.TransformFileException;
 import io.siggi.transformfile.io.CountingInputStream;
+import io.siggi.transformfile.io.FileHandlePool;
+import io.siggi.transformfile.io.FillInputStream;
 import io.siggi.transformfile.io.LimitInputStream;
 import io.siggi.transformfile.io.RandomAccessData;
-import io.siggi.transformfile.io.RandomAccessDataFile;
 import io.siggi.transformfile.io.RandomAccessInputStream;
 import io.siggi.transformfile.io.Util;
 
@@ -17,47 +18,89 @@ import io.siggi.transformfile.packet.types.PacketCloseFile;
 import io.siggi.transformfile.packet.types.PacketDataChunk;
 import io.siggi.transformfile.packet.types.PacketFileList;
 import io.siggi.transformfile.packet.types.PacketFileName;
+import io.siggi.transformfile.packet.types.PacketIntegrity;
 import io.siggi.transformfile.packet.types.PacketOffsets;
 import io.siggi.transformfile.packet.types.PacketParentDirectoryDistance;
 import io.siggi.transformfile.packet.types.PacketType;
 import java.io.*;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 public class TransformFile extends InputStream {
+    private static final int recentOutputSize = 8388608;
+    private static final int referenceBufferSize = 1048576;
     final String[] files;
     private List<String> fileList;
-    DataChunk[] chunks;
-    final long dataFileOffset;
+    volatile DataChunk[] chunks;
+    // the TransformFile this was duplicated from, which loads the chunks once for all of its duplicates
+    private final TransformFile template;
+    long dataFileOffset;
     final long startOfChunks;
     final long indexOffset;
+    private final long indexGranularity;
+    private final int indexStride;
+    private final int indexTopCount;
+    // the top level of a two level index, read on the first seek that needs it
+    private long[] indexTop = null;
     final RandomAccessData[] rads;
     private final String filename;
     private final boolean optimizedFile;
     private final File file;
     private final File parentDirectory;
-    private final long length;
+    private long length;
+    // false until the chunks of an unoptimized xfr have been gone through to find length and dataFileOffset
+    private volatile boolean scanned;
+    // why going through the chunks failed, thrown again on every later attempt
+    private volatile IOException scanFailure;
     private final byte[] one = new byte[1];
     private boolean closed = false;
     private PacketReader packetReader = null;
     private InputStream currentInput = null;
+    // the chunk currentInput reads
+    private DataChunk currentChunk = null;
     private long currentOffset = 0L;
     private int getChunksLastPosition = 0;
     private final PacketIO packetIO;
+    private final FileHandlePool pool;
+    private final boolean ownsPool;
+    private final PacketIntegrity integrity;
+    private boolean sharedXfr = false;
+    // set once an output chunk has been seen, until then there's no need to keep the last output
+    private volatile boolean hasOutputChunks = false;
+    // the last output we returned, to serve output chunks without reading it again
+    private byte[] recentOutput = null;
+    private long recentStart = 0L;
+    private long recentEnd = 0L;
+    private byte[] referenceBuffer = null;
+    private TransformFile outputReader = null;
 
     public static TransformFile open(File file) throws IOException, TransformFileException {
-        return new TransformFile(file, null);
+        return new TransformFile(file, null, null);
+    }
+
+    public static TransformFile open(File file, FileHandlePool pool) throws IOException, TransformFileException {
+        return new TransformFile(file, null, pool);
     }
 
     public static TransformFile open(RandomAccessData data) throws IOException, TransformFileException {
-        return new TransformFile(null, data);
+        return new TransformFile(null, data, null);
+    }
+
+    public static TransformFile open(RandomAccessData data, FileHandlePool pool) throws IOException, TransformFileException {
+        return new TransformFile(null, data, pool);
     }
 
-    private TransformFile(File file, RandomAccessData rad) throws IOException, TransformFileException {
+    private TransformFile(File file, RandomAccessData rad, FileHandlePool pool) throws IOException, TransformFileException {
         assert file != null || rad != null;
+        this.template = null;
+        // without a shared pool, dependencies still go through one of our own to bound how many are open at once
+        this.ownsPool = pool == null;
+        this.pool = pool = pool == null ? new FileHandlePool() : pool;
         boolean success = false;
         boolean shouldCloseRadOnFail = false;
         try {
@@ -69,12 +112,13 @@ public class TransformFile extends InputStream {
             long dataFileOffset = -1L;
             long startOfChunks = -1L;
             long indexOffset = -1L;
+            long indexGranularity = PacketOffsets.DEFAULT_INDEX_GRANULARITY;
+            int indexStride = 0;
+            int indexTopCount = 0;
             List<String> fileList = null;
-            List<DataChunk> dataChunks = new LinkedList<>();
-            boolean noDataChunks = false;
             if (rad == null) {
                 shouldCloseRadOnFail = true;
-                rad = new RandomAccessDataFile(new RandomAccessFile(file, "r"));
+                rad = pool.open(file);
             }
             RandomAccessInputStream radIn = new RandomAccessInputStream(rad, false);
             InputStream bufferedIn = new BufferedInputStream(radIn, 65536);
@@ -86,6 +130,7 @@ public class TransformFile extends InputStream {
             long endOfPacket = in.getCount();
             Packet packet = null;
             boolean optimizedFile = false;
+            PacketIntegrity integrity = null;
             readLoop:
             while (true) {
                 packet = packetIO.read(in);
@@ -126,15 +171,15 @@ public class TransformFile extends InputStream {
                         }
                     }
                     break;
-                    case DATA_CHUNK: {
+                    case DATA_CHUNK:
+                    case OUTPUT_CHUNK:
+                    case FILL_CHUNK: {
+                        // the chunks are only read when they're needed
                         if (startOfChunks == -1L) {
                             startOfChunks = startOfPacket;
                         }
-                        DataChunk dataChunk = ((PacketDataChunk) packet).getDataChunk();
-                        dataChunks.add(dataChunk);
-                        highLength = Math.max(highLength, dataChunk.transformedOffset + dataChunk.length);
+                        break readLoop;
                     }
-                    break;
                     case FILE_NAME: {
                         filename = ((PacketFileName) packet).getFileName();
                     }
@@ -145,15 +190,23 @@ public class TransformFile extends InputStream {
                     break;
                     case CLOSE_FILE:
                         break;
+                    case INTEGRITY: {
+                        integrity = (PacketIntegrity) packet;
+                    }
+                    break;
                     case OFFSETS: {
                         startOfChunks = endOfPacket;
                         PacketOffsets offsets = ((PacketOffsets) packet);
                         dataFileOffset = endOfPacket + offsets.getNonRedundantOffset();
                         indexOffset = endOfPacket + offsets.getAddressIndexOffset();
+                        indexGranularity = offsets.getIndexGranularity();
+                        indexStride = offsets.getIndexStride();
+                        indexTopCount = offsets.getIndexTopCount();
+                        if (indexOffset >= 0L && indexTopCount > 0 && (indexOffset < endOfPacket || indexOffset + indexTopCount * 8L > rad.length()))
+                            throw new IOException("Invalid TransformFile - Address index runs past the end of the file");
                         highLength = Math.max(highLength, offsets.getResultSize());
                         optimizedFile = true;
                         if (indexOffset >= 0L) {
-                            noDataChunks = true;
                             break readLoop;
                         }
                     }
@@ -163,21 +216,26 @@ public class TransformFile extends InputStream {
                     }
                 }
             }
-            if (dataFileOffset == -1L)
+            if (dataFileOffset == -1L && startOfChunks == -1L)
                 throw new IOException("Invalid TransformFile - Never got END or OFFSETS command");
             if (fileList == null)
                 throw new IOException("Invalid TransformFile - Never got File list");
             this.filename = filename;
             this.optimizedFile = optimizedFile;
+            this.integrity = integrity;
             files = fileList.toArray(new String[fileList.size()]);
-            chunks = noDataChunks ? null : dataChunks.toArray(dataChunks.toArray(new DataChunk[dataChunks.size()]));
+            chunks = startOfChunks == -1L ? new DataChunk[0] : null;
             this.dataFileOffset = dataFileOffset;
             this.length = highLength;
+            this.scanned = dataFileOffset != -1L;
             this.startOfChunks = startOfChunks;
             this.indexOffset = indexOffset;
+            this.indexGranularity = indexGranularity;
+            this.indexStride = indexStride;
+            this.indexTopCount = indexTopCount;
             this.rads = new RandomAccessData[files.length];
             this.rads[0] = rad;
-            if (noDataChunks) {
+            if (chunks == null) {
                 packetReader = new InputStreamPacketReader(new BufferedInputStream(new RandomAccessInputStream(rads[0], startOfChunks, false), 65536), packetIO);
             } else {
                 packetReader = new MemoryDataChunkPacketReader(chunks, 0);
@@ -190,26 +248,123 @@ public class TransformFile extends InputStream {
                 } catch (Exception e) {
                 }
             }
+            if (!success && ownsPool) {
+                pool.close();
+            }
+        }
+    }
+
+    private TransformFile(TransformFile template, RandomAccessData rad) {
+        this.template = template.template != null ? template.template : template;
+        this.files = template.files;
+        this.fileList = template.fileList;
+        this.chunks = template.chunks;
+        this.dataFileOffset = template.dataFileOffset;
+        this.startOfChunks = template.startOfChunks;
+        this.indexOffset = template.indexOffset;
+        this.indexGranularity = template.indexGranularity;
+        this.indexStride = template.indexStride;
+        this.indexTopCount = template.indexTopCount;
+        this.indexTop = template.indexTop;
+        this.filename = template.filename;
+        this.optimizedFile = template.optimizedFile;
+        this.file = template.file;
+        this.parentDirectory = template.parentDirectory;
+        this.length = template.length;
+        this.scanned = template.scanned;
+        this.hasOutputChunks = template.hasOutputChunks;
+        this.packetIO = template.packetIO;
+        this.pool = template.pool;
+        this.ownsPool = false;
+        this.integrity = template.integrity;
+        this.rads = new RandomAccessData[files.length];
+        this.rads[0] = rad;
+        if (chunks == null) {
+            packetReader = new InputStreamPacketReader(new BufferedInputStream(new RandomAccessInputStream(rad, startOfChunks, false), 65536), packetIO);
+        } else {
+            packetReader = new MemoryDataChunkPacketReader(chunks, 0);
         }
     }
 
-    void loadChunks() {
+    // opens another reader over the same xfr without parsing it again, sharing our pool so it has to be closed first
+    public TransformFile duplicate() throws IOException {
+        if (file == null) throw new IOException("Only file backed TransformFiles can be duplicated");
+        RandomAccessData rad = pool.open(file);
+        return new TransformFile(this, rad);
+    }
+
+    void loadChunks() throws IOException {
         if (chunks != null) return;
-        List<DataChunk> chunkList = new ArrayList<>();
-        try (RandomAccessInputStream in = new RandomAccessInputStream(rads[0], startOfChunks, false)) {
-            PacketReader reader = new InputStreamPacketReader(in, packetIO);
-            Packet packet;
-            while ((packet = reader.readPacket()) != null) {
-                if (packet.getPacketType() != PacketType.DATA_CHUNK) continue;
-                PacketDataChunk packetDataChunk = ((PacketDataChunk) packet);
-                chunkList.add(packetDataChunk.getDataChunk());
+        if (template != null) {
+            template.loadChunks();
+            copyScan(template);
+            chunks = template.chunks;
+            return;
+        }
+        synchronized (this) {
+            if (chunks != null) return;
+            List<DataChunk> chunkList = new ArrayList<>();
+            readChunks(chunkList);
+            chunks = chunkList.toArray(new DataChunk[chunkList.size()]);
+        }
+    }
+
+    // goes through the chunks once without keeping them, to find the length and where the non redundant data starts
+    private void scanChunks() throws IOException {
+        if (scanned) return;
+        if (template != null) {
+            template.scanChunks();
+            copyScan(template);
+            return;
+        }
+        readChunks(null);
+    }
+
+    private void copyScan(TransformFile template) {
+        if (template.hasOutputChunks) hasOutputChunks = true;
+        if (scanned) return;
+        length = template.length;
+        dataFileOffset = template.dataFileOffset;
+        scanned = true;
+    }
+
+    private synchronized void readChunks(List<DataChunk> chunkList) throws IOException {
+        if (scanFailure != null) throw scanFailure;
+        long highLength = length;
+        long endOfChunks = -1L;
+        CountingInputStream in = null;
+        try (RandomAccessInputStream raw = new RandomAccessInputStream(rads[0], startOfChunks, false)) {
+            in = new CountingInputStream(new BufferedInputStream(raw, 65536));
+            readLoop:
+            while (true) {
+                Packet packet = packetIO.read(in);
+                switch (packet.getPacketType()) {
+                    case END:
+                        endOfChunks = startOfChunks + in.getCount();
+                        break readLoop;
+                    case DATA_CHUNK:
+                    case OUTPUT_CHUNK:
+                    case FILL_CHUNK: {
+                        DataChunk dataChunk = ((PacketDataChunk) packet).getDataChunk();
+                        if (dataChunk.file == DataChunk.OUTPUT) hasOutputChunks = true;
+                        if (chunkList != null) chunkList.add(dataChunk);
+                        highLength = Math.max(highLength, dataChunk.transformedOffset + dataChunk.length);
+                    }
+                    break;
+                }
             }
-        } catch (Exception e) {
+        } catch (IOException e) {
+            if (in != null && startOfChunks + in.getCount() >= rads[0].length())
+                e = new IOException("Invalid TransformFile - Never got END or OFFSETS command", e);
+            throw scanFailure = e;
         }
-        chunks = chunkList.toArray(new DataChunk[chunkList.size()]);
+        if (scanned) return;
+        length = highLength;
+        if (dataFileOffset == -1L) dataFileOffset = endOfChunks;
+        scanned = true;
     }
 
-    LinkedList<DataChunk> getChunks(int fileIndex) {
+    LinkedList<DataChunk> getChunks(int fileIndex) throws IOException {
         if (chunks == null) loadChunks();
         LinkedList<DataChunk> list = new LinkedList<>();
         for (DataChunk chunk : chunks) {
@@ -220,7 +375,7 @@ public class TransformFile extends InputStream {
         return list;
     }
 
-    LinkedList<DataChunk> getChunks(long start, long end) {
+    LinkedList<DataChunk> getChunks(long start, long end) throws IOException {
         if (chunks == null) loadChunks();
         LinkedList<DataChunk> list = new LinkedList<>();
         int startPosition = getChunksLastPosition;
@@ -244,23 +399,34 @@ public class TransformFile extends InputStream {
         return filename;
     }
 
-    private RandomAccessData getRandomAccessData(int fileIndex) throws IOException {
+    File getDependencyFile(int fileIndex) {
+        return new File(parentDirectory, files[fileIndex]);
+    }
+
+    RandomAccessData getRandomAccessData(int fileIndex) throws IOException {
         if (closed) throw new IOException("Already closed");
         RandomAccessData rad = rads[fileIndex];
         if (rad != null)
             return rad;
-        return rads[fileIndex] = new RandomAccessDataFile(new RandomAccessFile(new File(parentDirectory, files[fileIndex]), "r"));
+        File dependency = getDependencyFile(fileIndex);
+        return rads[fileIndex] = pool.open(dependency);
     }
 
     @Override
     public void close() throws IOException {
         closed = true;
-        for (RandomAccessData rad : rads) {
+        if (outputReader != null) {
+            outputReader.close();
+        }
+        for (int i = sharedXfr ? 1 : 0; i < rads.length; i++) {
             try {
-                rad.close();
+                rads[i].close();
             } catch (Exception e) {
             }
         }
+        if (ownsPool) {
+            pool.close();
+        }
     }
 
     @Override
@@ -291,6 +457,9 @@ public class TransformFile extends InputStream {
                     return -1;
                 }
             } else {
+                if (hasOutputChunks) {
+                    recordOutput(buffer, offset, amount);
+                }
                 currentOffset += amount;
                 return amount;
             }
@@ -299,13 +468,60 @@ public class TransformFile extends InputStream {
 
     private InputStream getStream(DataChunk chunk) throws IOException {
         int fileIndex = chunk.file;
+        if (fileIndex == DataChunk.OUTPUT) {
+            hasOutputChunks = true;
+            return getOutputStream(chunk);
+        }
+        if (fileIndex == DataChunk.FILL)
+            return new FillInputStream((int) chunk.offset, chunk.length);
         long offset = chunk.offset;
         RandomAccessData rad = getRandomAccessData(fileIndex);
-        if (fileIndex == 0)
-            rad.seek(offset + dataFileOffset);
-        else
-            rad.seek(offset);
-        return new LimitInputStream(new RandomAccessInputStream(rad, false), chunk.length, false);
+        if (fileIndex == 0) {
+            scanChunks();
+            if (dataFileOffset == -1L)
+                throw new IOException("Invalid TransformFile - Never got END or OFFSETS command");
+            offset += dataFileOffset;
+        }
+        // an explicit file pointer because the output reader shares the xfr's RandomAccessData with us
+        return new LimitInputStream(new RandomAccessInputStream(rad, offset, false), chunk.length, false);
+    }
+
+    private InputStream getOutputStream(DataChunk chunk) throws IOException {
+        if (chunk.offset + chunk.length > chunk.transformedOffset)
+            throw new IOException("Invalid TransformFile - Output chunk reads output that comes after it");
+        if (recentOutput != null && chunk.length <= referenceBufferSize && chunk.offset >= recentStart && chunk.offset + chunk.length <= recentEnd) {
+            if (referenceBuffer == null) referenceBuffer = new byte[referenceBufferSize];
+            int length = (int) chunk.length;
+            int position = (int) (chunk.offset % recentOutput.length);
+            int firstPart = Math.min(length, recentOutput.length - position);
+            System.arraycopy(recentOutput, position, referenceBuffer, 0, firstPart);
+            System.arraycopy(recentOutput, 0, referenceBuffer, firstPart, length - firstPart);
+            return new ByteArrayInputStream(referenceBuffer, 0, length);
+        }
+        if (outputReader == null) {
+            outputReader = new TransformFile(this, rads[0]);
+            outputReader.sharedXfr = true;
+        }
+        outputReader.seek(chunk.offset);
+        return new LimitInputStream(outputReader, chunk.length, false);
+    }
+
+    private void recordOutput(byte[] buffer, int offset, int amount) {
+        if (recentOutput == null) recentOutput = new byte[recentOutputSize];
+        if (recentEnd != currentOffset) {
+            recentStart = recentEnd = currentOffset;
+        }
+        if (amount > recentOutput.length) {
+            offset += amount - recentOutput.length;
+            recentStart = recentEnd = currentOffset + amount - recentOutput.length;
+            amount = recentOutput.length;
+        }
+        int position = (int) (recentEnd % recentOutput.length);
+        int firstPart = Math.min(amount, recentOutput.length - position);
+        System.arraycopy(buffer, offset, recentOutput, position, firstPart);
+        System.arraycopy(buffer, offset + firstPart, recentOutput, 0, amount - firstPart);
+        recentEnd += amount;
+        recentStart = Math.max(recentStart, recentEnd - recentOutput.length);
     }
 
     private InputStream nextInput() throws IOException {
@@ -313,11 +529,14 @@ public class TransformFile extends InputStream {
         while ((packet = packetReader.readPacket()) != null) {
             switch (packet.getPacketType()) {
                 case END:
+                    // so another call doesn't read on past the end
+                    packetReader = new MemoryDataChunkPacketReader(new DataChunk[0]);
                     return null;
                 case CLOSE_FILE: {
                     int fileIndex = ((PacketCloseFile) packet).getFileIndex();
                     if (fileIndex < 1) break;
-                    if (rads[fileIndex] == null && rads[fileIndex].isCloseable()) {
+                    if (fileIndex >= rads.length) break;
+                    if (rads[fileIndex] != null && rads[fileIndex].isCloseable()) {
                         try {
                             rads[fileIndex].close();
                         } catch (IOException e) {
@@ -326,8 +545,11 @@ public class TransformFile extends InputStream {
                     }
                 }
                 break;
-                case DATA_CHUNK: {
-                    return getStream(((PacketDataChunk) packet).getDataChunk());
+                case DATA_CHUNK:
+                case OUTPUT_CHUNK:
+                case FILL_CHUNK: {
+                    currentChunk = ((PacketDataChunk) packet).getDataChunk();
+                    return getStream(currentChunk);
                 }
             }
         }
@@ -338,15 +560,25 @@ public class TransformFile extends InputStream {
         return currentOffset;
     }
 
-    public long length() {
+    public long length() throws IOException {
+        scanChunks();
         return length;
     }
 
     public void seek(long offset) throws IOException {
+        if (offset < 0L || offset > length())
+            throw new IOException("Invalid offset " + offset);
+        if (offset == length) {
+            packetReader = new MemoryDataChunkPacketReader(new DataChunk[0]);
+            currentInput = null;
+            currentOffset = offset;
+            return;
+        }
+        if (chunks == null && indexOffset < 0L) loadChunks();
         if (chunks == null) {
             packetReader = createPacketReader(offset);
         } else {
-            packetReader = new MemoryDataChunkPacketReader(chunks, 0);
+            packetReader = new MemoryDataChunkPacketReader(chunks, findChunk(offset));
         }
         Packet packet;
         while ((packet = packetReader.readPacket()) != null) {
@@ -355,13 +587,16 @@ public class TransformFile extends InputStream {
                     currentInput = null;
                     return;
                 case DATA_CHUNK:
+                case OUTPUT_CHUNK:
+                case FILL_CHUNK:
                     break;
                 default:
                     continue;
             }
             DataChunk chunk = ((PacketDataChunk) packet).getDataChunk();
-            if (chunk.transformedOffset <= offset && chunk.transformedOffset + chunk.length < offset) {
+            if (chunk.transformedOffset <= offset && chunk.transformedOffset + chunk.length > offset) {
                 closeAllRads();
+                currentChunk = chunk;
                 currentInput = getStream(chunk);
                 currentInput.skip(offset - chunk.transformedOffset);
                 currentOffset = offset;
@@ -371,6 +606,37 @@ public class TransformFile extends InputStream {
         throw new IOException("Invalid offset " + offset);
     }
 
+    // if the output at the current position is from a fill chunk of zeros, skips to the end of it and returns how
+    // many bytes were skipped, so they don't have to be written to an output file that already reads as zeros there
+    long skipZeroFill() throws IOException {
+        // moves on from a chunk that's been read to the end, or the fill would only be seen after a read into it
+        while (currentInput == null || currentOffset >= currentChunk.transformedOffset + currentChunk.length) {
+            currentInput = nextInput();
+            if (currentInput == null) return 0L;
+        }
+        if (currentChunk.file != DataChunk.FILL || currentChunk.offset != 0L) return 0L;
+        long skipped = currentChunk.transformedOffset + currentChunk.length - currentOffset;
+        if (skipped <= 0L) return 0L;
+        // the next read moves on to the chunk after this one
+        currentInput = null;
+        currentOffset += skipped;
+        return skipped;
+    }
+
+    private int findChunk(long offset) {
+        int low = 0;
+        int high = chunks.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (chunks[mid].transformedOffset <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
     private void closeAllRads() {
         for (int i = 1; i < rads.length; i++) { // starting from 1, never close 0 except when we're explicitly closed.
             if (rads[i] == null) continue;
@@ -387,13 +653,58 @@ public class TransformFile extends InputStream {
     }
 
     private PacketReader createPacketReader(long offset) throws IOException {
-        long offsetInIndex = (offset / 131072L) * 8L;
-        rads[0].seek(indexOffset + offsetInIndex);
-        RandomAccessInputStream in = new RandomAccessInputStream(rads[0], false);
-        long jumpTo = startOfChunks + Util.readLong(in);
+        long entry = offset / indexGranularity;
+        long jumpTo;
+        if (indexStride == 0) {
+            jumpTo = startOfChunks + readIndex(indexOffset + entry * 8L, 8);
+        } else {
+            // the top level has where each group of indexStride entries starts, the bottom level 4 bytes for each
+            // entry relative to the start of its group
+            if (indexTop == null) {
+                long[] top = new long[indexTopCount];
+                if (indexOffset + indexTopCount * 8L > rads[0].length())
+                    throw new IOException("Invalid TransformFile - Address index runs past the end of the file");
+                byte[] data = new byte[(int) (indexTopCount * 8L)];
+                rads[0].seek(indexOffset);
+                readFully(rads[0], data);
+                for (int i = 0; i < top.length; i++) {
+                    top[i] = bytesToLong(data, i * 8, 8);
+                }
+                indexTop = top;
+            }
+            int group = (int) (entry / indexStride);
+            if (group >= indexTop.length)
+                throw new IOException("Invalid TransformFile - Address index is too short");
+            jumpTo = startOfChunks + indexTop[group] + readIndex(indexOffset + indexTop.length * 8L + entry * 4L, 4);
+        }
         return new InputStreamPacketReader(new BufferedInputStream(new RandomAccessInputStream(rads[0], jumpTo, false), 65536), packetIO);
     }
 
+    private long readIndex(long position, int size) throws IOException {
+        byte[] data = new byte[size];
+        rads[0].seek(position);
+        readFully(rads[0], data);
+        return bytesToLong(data, 0, size);
+    }
+
+    private static void readFully(RandomAccessData rad, byte[] data) throws IOException {
+        int done = 0;
+        while (done < data.length) {
+            int c = rad.read(data, done, data.length - done);
+            if (c == -1) throw new IOException("Invalid TransformFile - Address index is cut off");
+            done += c;
+        }
+    }
+
+    // big endian, unsigned for sizes under 8
+    private static long bytesToLong(byte[] data, int offset, int size) {
+        long value = 0L;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (data[offset + i] & 0xffL);
+        }
+        return value;
+    }
+
     public long skip(long n) throws IOException {
         long oldPointer = getFilePointer();
         long newPointer = Math.max(0L, Math.min(length(), oldPointer + n));
@@ -413,4 +724,110 @@ public class TransformFile extends InputStream {
     public boolean isOptimized() {
         return optimizedFile;
     }
+
+    public PacketIntegrity getIntegrity() {
+        return integrity;
+    }
+
+    // a hash of everything before the non redundant data, the header and the chunks, with the size of the xfr and
+    // when it was modified if it's a file, to tell if something was made from this same xfr
+    String fingerprint() throws IOException {
+        scanChunks();
+        long end = dataFileOffset == -1L ? rads[0].length() : dataFileOffset;
+        byte[] hash;
+        try (InputStream in = new RandomAccessInputStream(rads[0], 0L, false)) {
+            hash = MerkleTree.hashBlock(MerkleTree.digest(MerkleTree.DEFAULT_ALGORITHM), in, end, new byte[65536]);
+        }
+        String fingerprint = rads[0].length() + ":" + Base64.getEncoder().encodeToString(hash);
+        if (file != null) fingerprint += ":" + file.lastModified();
+        return fingerprint;
+    }
+
+    // returns the indexes of the integrity blocks overlapping start to end that don't match their hash
+    public List<Long> verify(long start, long end, int threads) throws IOException {
+        if (integrity == null) throw new IOException("This xfr has no integrity data");
+        long blockSize = integrity.getBlockSize();
+        long firstBlock = Math.max(0L, start) / blockSize;
+        long lastBlock = MerkleTree.blockCount(Math.min(end, length()), blockSize);
+        long[] blocks = new long[(int) Math.max(0L, lastBlock - firstBlock)];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = firstBlock + i;
+        }
+        return verifyBlocks(blocks, threads);
+    }
+
+    public List<Long> verify(int threads) throws IOException {
+        return verify(0L, length(), threads);
+    }
+
+    // verifies only the blocks that read from the given dependency, to check an origin before a long transform
+    public List<Long> verifyDependency(int fileIndex, int threads) throws IOException {
+        if (integrity == null) throw new IOException("This xfr has no integrity data");
+        if (chunks == null) loadChunks();
+        long blockSize = integrity.getBlockSize();
+        List<Long> blockList = new ArrayList<>();
+        long lastAdded = -1L;
+        for (DataChunk chunk : chunks) {
+            if (chunk.file != fileIndex || chunk.length == 0L) continue;
+            long first = Math.max(lastAdded + 1L, chunk.transformedOffset / blockSize);
+            long last = (chunk.transformedOffset + chunk.length - 1L) / blockSize;
+            for (long block = first; block <= last; block++) {
+                blockList.add(block);
+                lastAdded = block;
+            }
+        }
+        long[] blocks = new long[blockList.size()];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = blockList.get(i);
+        }
+        return verifyBlocks(blocks, threads);
+    }
+
+    private List<Long> verifyBlocks(long[] blocks, int threads) throws IOException {
+        byte[][] hashes = integrity.getBlockHashes();
+        long blockSize = integrity.getBlockSize();
+        List<Long> failed = Collections.synchronizedList(new ArrayList<>());
+        MerkleTree.runParallel(threads, blocks.length, (first, last) -> {
+            MessageDigest digest = MerkleTree.digest(integrity.getAlgorithm());
+            byte[] buffer = new byte[65536];
+            try (TransformFile tf = duplicate()) {
+                long position = -1L;
+                for (int i = first; i < last; i++) {
+                    long block = blocks[i];
+                    long blockStart = block * blockSize;
+                    long blockLength = Math.min(blockSize, length() - blockStart);
+                    if (block >= hashes.length) {
+                        failed.add(block);
+                        continue;
+                    }
+                    if (position != blockStart) tf.seek(blockStart);
+                    byte[] hash = MerkleTree.hashBlock(digest, tf, blockLength, buffer);
+                    position = blockStart + blockLength;
+                    if (!MessageDigest.isEqual(hash, hashes[(int) block])) failed.add(block);
+                }
+            }
+        });
+        Collections.sort(failed);
+        return failed;
+    }
+
+    // returns a description of each dependency that is missing or too short for the chunks that use it
+    public List<String> checkDependencies() throws IOException {
+        if (chunks == null) loadChunks();
+        long[] needed = new long[files.length];
+        for (DataChunk chunk : chunks) {
+            if (chunk.file < 1) continue;
+            needed[chunk.file] = Math.max(needed[chunk.file], chunk.offset + chunk.length);
+        }
+        List<String> problems = new ArrayList<>();
+        for (int i = 1; i < files.length; i++) {
+            File dependency = getDependencyFile(i);
+            if (!dependency.exists()) {
+                problems.add(i + ": " + files[i] + " is missing");
+            } else if (dependency.length() < needed[i]) {
+                problems.add(i + ": " + files[i] + " is " + dependency.length() + " bytes, but at least " + needed[i] + " bytes are needed");
+            }
+        }
+        return problems;
+    }
 }
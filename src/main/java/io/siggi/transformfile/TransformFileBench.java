@@ -0,0 +1,305 @@
+package io.siggi.transformfile;
+
+import io.siggi.transformfile.exception.TransformFileException;
+import io.siggi.transformfile.io.ByteArrays;
+import io.siggi.transformfile.io.Util;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+// generates an origin and an edited destination from a seed, then times compose, optimize, transform and seeks
+// over them, so whole job behaviour can be compared between versions on the same data
+public class TransformFileBench {
+    private static final int seekLength = 65536;
+
+    // writes directory/origin.dat, a tar-like run of 512 byte headers and padded contents, and directory/dest.dat,
+    // the origin with extents copied, deleted, inserted before, moved in from elsewhere or replaced with zeros
+    public static void generate(File directory, long size, long seed) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        File origin = new File(directory, "origin.dat");
+        SplittableRandom random = new SplittableRandom(seed);
+        byte[] buffer = new byte[1048576];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(origin), 1048576)) {
+            long written = 0L;
+            int entry = 0;
+            while (written < size) {
+                long contentLength = Math.min(size - written - 512L, 512L + random.nextLong(1048576L));
+                if (contentLength < 0L) contentLength = 0L;
+                writeHeader(out, entry++, contentLength);
+                written += 512L;
+                long padded = (contentLength + 511L) / 512L * 512L;
+                long end = written + Math.min(padded, size - written);
+                // some entries are mostly empty, like sparse database pages
+                boolean zeros = random.nextInt(10) == 0;
+                while (written < end) {
+                    int amount = (int) Math.min(buffer.length, end - written);
+                    if (zeros) {
+                        Arrays.fill(buffer, 0, amount, (byte) 0);
+                    } else {
+                        fill(random, buffer, amount);
+                    }
+                    out.write(buffer, 0, amount);
+                    written += amount;
+                }
+            }
+        }
+        long originLength = origin.length();
+        try (RandomAccessFile in = new RandomAccessFile(origin, "r");
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(directory, "dest.dat")), 1048576)) {
+            long position = 0L;
+            while (position < originLength) {
+                long length = Math.min(originLength - position, 4096L + random.nextLong(524288L));
+                // most edits in a tar keep 512 byte alignment
+                if (random.nextInt(4) != 0) length = Math.max(512L, length / 512L * 512L);
+                length = Math.min(length, originLength - position);
+                int operation = random.nextInt(100);
+                if (operation < 70) {
+                    copy(in, position, length, out, buffer);
+                } else if (operation < 78) {
+                    // deleted
+                } else if (operation < 86) {
+                    long insert = 1L + random.nextLong(16384L);
+                    while (insert > 0L) {
+                        int amount = (int) Math.min(buffer.length, insert);
+                        fill(random, buffer, amount);
+                        out.write(buffer, 0, amount);
+                        insert -= amount;
+                    }
+                    copy(in, position, length, out, buffer);
+                } else if (operation < 92) {
+                    Arrays.fill(buffer, (byte) 0);
+                    for (long left = length; left > 0L; ) {
+                        int amount = (int) Math.min(buffer.length, left);
+                        out.write(buffer, 0, amount);
+                        left -= amount;
+                    }
+                } else {
+                    // a block moved in from somewhere else in the origin
+                    long from = random.nextLong(Math.max(1L, originLength - length)) / 512L * 512L;
+                    copy(in, from, Math.min(length, originLength - from), out, buffer);
+                }
+                position += length;
+            }
+        }
+    }
+
+    // runs every step over directory/origin.dat and directory/dest.dat, returning the measurements by name
+    // seekCost is passed to the optimizer, seeks of 64k at random positions are compared against dest.dat
+    public static Map<String, Object> run(ComposeOptions options, File directory, long seekCost, int seeks, long seed) throws IOException, TransformFileException {
+        File origin = new File(directory, "origin.dat");
+        File destination = new File(directory, "dest.dat");
+        File composed = new File(directory, "bench.xfr");
+        File optimized = new File(directory, "bench-optimized.xfr");
+        long size = destination.length();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("originSize", origin.length());
+        result.put("destinationSize", size);
+        result.put("matchSize", options.getMatchSize());
+        try {
+            long start = System.nanoTime();
+            TransformFileComposer.compose(options, composed.getPath(), destination.getPath(), new String[]{"origin.dat"}, origin.getPath());
+            step(result, "compose", start, size);
+            result.put("xfrSize", composed.length());
+
+            start = System.nanoTime();
+            TransformFileOptimizer.Report report;
+            try (TransformFile tf = TransformFile.open(composed);
+                 FileOutputStream out = new FileOutputStream(optimized)) {
+                report = TransformFileOptimizer.optimize(tf, out, options.getIntegrityBlockSize(), seekCost, options.getIndexGranularity());
+            }
+            step(result, "optimize", start, composed.length());
+            result.put("composedChunks", report.chunksBefore);
+            result.put("inlinedChunks", report.inlinedChunks);
+            result.put("seeksBefore", report.seeksBefore);
+            result.put("seeksAfter", report.seeksAfter);
+            result.put("optimizedSize", optimized.length());
+            result.put("sizeRatio", size == 0L ? 0.0 : (double) optimized.length() / size);
+
+            try (TransformFile tf = TransformFile.open(optimized)) {
+                tf.loadChunks();
+                long fromOrigin = 0L;
+                long literal = 0L;
+                long other = 0L;
+                for (DataChunk chunk : tf.chunks) {
+                    if (chunk.file > 0) {
+                        fromOrigin++;
+                    } else if (chunk.file == 0) {
+                        literal++;
+                    } else {
+                        other++;
+                    }
+                }
+                result.put("chunks", tf.chunks.length);
+                result.put("originChunks", fromOrigin);
+                result.put("literalChunks", literal);
+                result.put("otherChunks", other);
+            }
+
+            // only the reads from the xfr are timed, not hashing or reading dest.dat to check them
+            String expected = hash(new FileInputStream(destination), null);
+            String actual;
+            long[] transformNanos = new long[1];
+            try (TransformFile tf = TransformFile.open(optimized)) {
+                actual = hash(tf, transformNanos);
+            }
+            time(result, "transform", transformNanos[0], size);
+            result.put("transformMatches", expected.equals(actual));
+
+            long nanos = 0L;
+            boolean seeksMatch = true;
+            if (size > 0L) {
+                Random random = new Random(seed);
+                byte[] expectedBytes = new byte[seekLength];
+                byte[] actualBytes = new byte[seekLength];
+                try (TransformFile tf = TransformFile.open(optimized);
+                     RandomAccessFile raf = new RandomAccessFile(destination, "r")) {
+                    for (int i = 0; i < seeks; i++) {
+                        long position = (long) (random.nextDouble() * size);
+                        int length = (int) Math.min(seekLength, size - position);
+                        long seekStart = System.nanoTime();
+                        tf.seek(position);
+                        int read = 0;
+                        while (read < length) {
+                            int c = tf.read(actualBytes, read, length - read);
+                            if (c == -1) break;
+                            read += c;
+                        }
+                        nanos += System.nanoTime() - seekStart;
+                        raf.seek(position);
+                        raf.readFully(expectedBytes, 0, length);
+                        if (read != length || ByteArrays.mismatch(expectedBytes, 0, actualBytes, 0, length) != -1)
+                            seeksMatch = false;
+                    }
+                }
+            }
+            result.put("seeks", seeks);
+            result.put("seeksPerSecond", nanos == 0L ? 0.0 : seeks * 1e9 / nanos);
+            result.put("seeksMatch", seeksMatch);
+        } finally {
+            composed.delete();
+            optimized.delete();
+        }
+        result.put("peakHeap", peakHeap());
+        long peakRss = peakRss();
+        if (peakRss != -1L) result.put("peakRss", peakRss);
+        return result;
+    }
+
+    private static void step(Map<String, Object> result, String name, long start, long bytes) {
+        time(result, name, System.nanoTime() - start, bytes);
+    }
+
+    private static void time(Map<String, Object> result, String name, long nanos, long bytes) {
+        result.put(name + "Seconds", nanos / 1e9);
+        result.put(name + "MBps", nanos == 0L ? 0.0 : bytes / 1048576.0 / (nanos / 1e9));
+    }
+
+    // one flat JSON object, values are numbers, booleans or strings
+    public static String toJson(Map<String, Object> result) {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Object> entry : result.entrySet()) {
+            if (sb.length() > 1) sb.append(",");
+            sb.append("\"").append(entry.getKey()).append("\":");
+            Object value = entry.getValue();
+            if (value instanceof Number || value instanceof Boolean) {
+                sb.append(value);
+            } else {
+                sb.append("\"").append(String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"")).append("\"");
+            }
+        }
+        return sb.append("}").toString();
+    }
+
+    private static void writeHeader(OutputStream out, int entry, long contentLength) throws IOException {
+        byte[] header = new byte[512];
+        byte[] name = ("file" + entry + ".dat").getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(name, 0, header, 0, Math.min(100, name.length));
+        byte[] length = String.format("%011o", contentLength).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(length, 0, header, 124, Math.min(12, length.length));
+        out.write(header);
+    }
+
+    private static void fill(SplittableRandom random, byte[] buffer, int amount) {
+        for (int i = 0; i < amount; i += 8) {
+            long value = random.nextLong();
+            for (int j = 0; j < 8 && i + j < amount; j++) {
+                buffer[i + j] = (byte) (value >>> (j * 8));
+            }
+        }
+    }
+
+    private static void copy(RandomAccessFile in, long position, long length, OutputStream out, byte[] buffer) throws IOException {
+        in.seek(position);
+        while (length > 0L) {
+            int c = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (c == -1) break;
+            out.write(buffer, 0, c);
+            length -= c;
+        }
+    }
+
+    // adds the time spent reading from in to nanos if it isn't null
+    private static String hash(InputStream in, long[] nanos) throws IOException {
+        try (InputStream stream = in) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[1048576];
+            while (true) {
+                long start = System.nanoTime();
+                int c = stream.read(buffer, 0, buffer.length);
+                if (nanos != null) nanos[0] += System.nanoTime() - start;
+                if (c == -1) break;
+                digest.update(buffer, 0, c);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0L;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    // from /proc/self/status where there is one, -1 elsewhere
+    private static long peakRss() {
+        File status = new File("/proc/self/status");
+        if (!status.exists()) return -1L;
+        try (BufferedReader reader = new BufferedReader(new FileReader(status))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmHWM:")) {
+                    return Util.parseSize(line.substring(6).trim().replace(" kB", "k"));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+        }
+        return -1L;
+    }
+}
@@ -1,57 +1,119 @@
 package io.siggi.transformfile;
 
 import io.siggi.transformfile.exception.TransformFileException;
+import io.siggi.transformfile.io.ByteArrays;
 import io.siggi.transformfile.io.LimitInputStream;
 import io.siggi.transformfile.io.RandomAccessInputStream;
+import io.siggi.transformfile.io.ReadWindow;
 import io.siggi.transformfile.io.Util;
 import io.siggi.transformfile.packet.PacketIO;
 import io.siggi.transformfile.packet.types.PacketEnd;
 import io.siggi.transformfile.packet.types.PacketFileList;
 import io.siggi.transformfile.packet.types.PacketFileName;
+import io.siggi.transformfile.packet.types.PacketIntegrity;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import static io.siggi.transformfile.io.Util.copy;
 
 public class TransformFileComposer implements Closeable {
     private static final int bufferSize = 16384;
+    private static final int windowSize = 1048576;
+    private static final int selfIndexSize = 4194304;
+    private static final long hashMultiplier = 0x100000001B3L;
+    // candidates are only expanded this far when comparing them
+    private static final int scoreLimit = 1048576;
+    // roughly what a data chunk packet costs in the xfr
+    private static final long chunkOverhead = 16L;
+    private final ComposeOptions options;
     private final long lookahead;
     private final long lookbehind;
     private final int matchSize;
     private final File transformerFile;
     private final File finalFile;
     private final File[] originFiles;
+    private final String[] originSpecs;
     private final RandomAccessFile finalRaf;
     private final RandomAccessFile[] originRafs;
     private final TransformFile[] translateFiles;
-    private final List<UseRange>[] usageRanges;
+    private final RangeSet[] usageRanges;
     private final long[] highByte;
 
     private final OutputStream out;
     private final long fileLength;
     private final byte[] searchBuffer;
-    private final byte[] expansionBytesA;
-    private final byte[] expansionBytesB;
+    private long segmentStart = 0L;
+    private long segmentEnd;
+    private List<SearchResult> segmentResults = null;
     private long filePointer = 0L;
     private long destXfrPointer = 0L;
     private List<SearchResult> resultsFromDestination = new LinkedList<>();
-    private byte[] bufferA = new byte[bufferSize];
-    private byte[] bufferB = new byte[bufferSize];
-    private byte[] tmpBuffer = new byte[bufferA.length + bufferB.length];
+    private final ReadWindow destinationWindow;
+    private final ReadWindow[] originWindows;
+    private final ReadWindow selfWindow;
+    private final boolean selfReferences;
+    private final boolean fillRuns;
+    // first position of each matchSize aligned block of output we've passed, by hash, 0 if empty or position + 1
+    private long[] selfIndex = null;
+    private long selfIndexed;
+    private long hashRemovePower;
 
     private int lastIndex;
+    private final int maxCandidates;
+    private long lastWritten = 0L;
+    // where the last chunk read from an origin ended
+    private int previousFile = 0;
+    private long previousOriginEnd = 0L;
+    private long previousDestinationEnd = 0L;
+    private ComposeHint hint = null;
+    // how far the destination has moved from where the hint has the same data
+    private long hintDrift = 0L;
     private boolean likeConcatenation = false;
+    // the order origins are searched in, by index, which only changes with adaptiveOrder
+    private final int[] originOrder;
+    private final boolean adaptiveOrder;
+    // recent hit rate of each origin out of 65536, decaying by a sixteenth each time it's searched
+    private final int[] originScore;
+    // times each origin has been searched since its last match
+    private final int[] originMisses;
+    private final int coldBudget;
+    // cold origins are still searched every coldBudget-th search, so they can become warm again
+    private long adaptiveSearches = 0L;
+    private boolean probeCold = true;
 
     private boolean alreadyWroteHeader = false;
+    // when appending, the xfr whose chunks and non redundant data come first, and the names of its dependencies
+    private TransformFile appendTo = null;
+    private long appendedDataSize = 0L;
+    private String[] fileNames = null;
+    // when writing the optimized layout, the chunks until they can be written after the offsets packet, and the non
+    // redundant data copied out of the destination as it's found
+    private List<DataChunk> optimizedChunks = null;
+    // the header of the optimized layout, written once the chunks show which origins and which version it needs
+    private List<String> headerFiles = null;
+    private PacketIntegrity headerIntegrity = null;
+    private File spillFile = null;
+    private OutputStream spill = null;
     private PacketIO packetIO;
 
     public PacketIO getPacketIO() {
@@ -64,14 +126,25 @@ public class TransformFileComposer implements Closeable {
         this.packetIO = packetIO;
     }
 
-    private TransformFileComposer(long lookahead, long lookbehind, int matchSize, boolean likeConcatenation, String transformerFile, String finalFile, String... originFiles) throws IOException, TransformFileException {
-        this.lookahead = lookahead;
-        this.lookbehind = lookbehind;
-        this.matchSize = matchSize;
-        this.likeConcatenation = likeConcatenation;
-        this.transformerFile = new File(transformerFile);
+    private TransformFileComposer(ComposeOptions options, String transformerFile, String finalFile, String... originFiles) throws IOException, TransformFileException {
+        this.options = options;
+        this.lookahead = options.getLookahead();
+        this.lookbehind = options.getLookbehind();
+        this.matchSize = options.getMatchSize();
+        this.likeConcatenation = options.isLikeConcatenation();
+        this.selfReferences = options.isSelfReferences();
+        this.fillRuns = options.isFillRuns();
+        this.maxCandidates = options.getCandidates();
+        this.adaptiveOrder = options.isAdaptiveOrder();
+        this.coldBudget = options.getColdBudget();
+        this.transformerFile = transformerFile == null ? null : new File(transformerFile);
         this.finalFile = new File(finalFile);
         this.originFiles = new File[originFiles.length];
+        this.originOrder = new int[originFiles.length];
+        for (int i = 0; i < originOrder.length; i++) originOrder[i] = i;
+        this.originScore = new int[originFiles.length];
+        this.originMisses = new int[originFiles.length];
+        this.originSpecs = originFiles;
         this.translateFiles = new TransformFile[originFiles.length];
         boolean success = false;
         try {
@@ -90,28 +163,65 @@ public class TransformFileComposer implements Closeable {
             }
             this.finalRaf = new RandomAccessFile(this.finalFile, "r");
             this.fileLength = this.finalRaf.length();
+            this.segmentEnd = this.fileLength;
+            this.destinationWindow = new ReadWindow(this.finalRaf.getChannel(), Math.max(windowSize, (bufferSize + matchSize) * 2));
+            this.selfWindow = selfReferences ? new ReadWindow(this.finalRaf.getChannel(), Math.max(windowSize, (bufferSize + matchSize) * 2)) : null;
             this.originRafs = new RandomAccessFile[this.originFiles.length];
-            this.usageRanges = new List[this.originFiles.length];
+            this.originWindows = new ReadWindow[this.originFiles.length];
+            this.usageRanges = new RangeSet[this.originFiles.length];
             for (int i = 0; i < this.originRafs.length; i++) {
                 this.originRafs[i] = new RandomAccessFile(this.originFiles[i], "r");
-                this.usageRanges[i] = new LinkedList<>();
+                this.originWindows[i] = new ReadWindow(this.originRafs[i].getChannel(), Math.max(windowSize, (bufferSize + matchSize) * 2));
+                this.usageRanges[i] = new RangeSet(matchSize * 8L);
             }
             this.highByte = new long[this.originFiles.length];
-            this.out = new FileOutputStream(transformerFile);
+            if (transformerFile != null && options.getHint() != null) {
+                File[] hintOrigins = new File[this.originFiles.length];
+                for (int i = 0; i < hintOrigins.length; i++) {
+                    if (translateFiles[i] == null) hintOrigins[i] = this.originFiles[i];
+                }
+                this.hint = ComposeHint.load(options.getHint(), hintOrigins);
+            }
+            this.out = transformerFile == null ? null : new FileOutputStream(transformerFile);
+            if (this.out != null && options.isOptimized() && options.isCopyNonRedundantData()) {
+                this.spillFile = new File(this.transformerFile.getAbsoluteFile().getParentFile(), UUID.randomUUID() + ".tmp");
+                this.spill = new BufferedOutputStream(new FileOutputStream(spillFile), 65536);
+                this.optimizedChunks = new ArrayList<>();
+            }
             success = true;
         } finally {
             if (!success)
                 close();
         }
         searchBuffer = new byte[matchSize];
-        expansionBytesA = new byte[matchSize];
-        expansionBytesB = new byte[matchSize];
     }
 
     public static void transform(long lookahead, long lookbehind, int matchSize, boolean copyNonRedundantData, boolean likeConcatenation, String transformerFile, String finalFile, String... originFiles) throws IOException, TransformFileException {
+        ComposeOptions options = new ComposeOptions();
+        options.setLookahead(lookahead);
+        options.setLookbehind(lookbehind);
+        options.setMatchSize(matchSize);
+        options.setCopyNonRedundantData(copyNonRedundantData);
+        options.setLikeConcatenation(likeConcatenation);
+        transform(options, transformerFile, finalFile, originFiles);
+    }
+
+    public static void transform(ComposeOptions options, String transformerFile, String finalFile, String... originFiles) throws IOException, TransformFileException {
+        boolean copyNonRedundantData = options.isCopyNonRedundantData();
+        if (options.getSegments() > 1) {
+            try (TransformFileComposer composer = new TransformFileComposer(options, transformerFile, finalFile, originFiles)) {
+                composer.writeHeader();
+                composer.composeSegments(options.getSegments());
+                if (copyNonRedundantData)
+                    System.out.println("Copying non-redundant data");
+                composer.finish(copyNonRedundantData);
+                System.out.println("Finished!");
+            }
+            return;
+        }
         long now = System.currentTimeMillis();
         long lastUpdate = now;
-        try (TransformFileComposer composer = new TransformFileComposer(lookahead, lookbehind, matchSize, likeConcatenation, transformerFile, finalFile, originFiles)) {
+        try (TransformFileComposer composer = new TransformFileComposer(options, transformerFile, finalFile, originFiles)) {
             composer.writeHeader();
             while (true) {
                 if (!composer.step()) break;
@@ -135,6 +245,202 @@ public class TransformFileComposer implements Closeable {
         }
     }
 
+    // composes without printing progress, naming the origins in the xfr with fileNames instead of their paths
+    static void compose(ComposeOptions options, String transformerFile, String finalFile, String[] fileNames, String... originFiles) throws IOException, TransformFileException {
+        try (TransformFileComposer composer = new TransformFileComposer(options, transformerFile, finalFile, originFiles)) {
+            composer.fileNames = fileNames;
+            composer.writeHeader();
+            if (options.getSegments() > 1) {
+                composer.composeSegments(options.getSegments());
+            } else {
+                while (composer.step()) ;
+            }
+            composer.finish(options.isCopyNonRedundantData());
+        }
+    }
+
+    // composes a destination that has only grown since xfr was made, keeping the chunks of xfr for everything
+    // up to its length and only searching for the rest
+    public static void append(ComposeOptions options, TransformFile xfr, String transformerFile, String finalFile) throws IOException, TransformFileException {
+        xfr.loadChunks();
+        String[] originFiles = new String[xfr.files.length - 1];
+        // the names in xfr were resolved from where it is, the output finds its dependencies relative to where it is
+        String[] fileNames = new String[originFiles.length];
+        File directory = new File(transformerFile).getAbsoluteFile().getParentFile();
+        for (int i = 1; i < xfr.files.length; i++) {
+            File dependency = xfr.getDependencyFile(i).getAbsoluteFile();
+            originFiles[i - 1] = dependency.getPath();
+            fileNames[i - 1] = directory.toPath().normalize().relativize(dependency.toPath().normalize()).toString().replace("\\", "/");
+        }
+        long start = xfr.length();
+        checkPrefix(xfr, start, new File(finalFile));
+        try (TransformFileComposer composer = new TransformFileComposer(options, transformerFile, finalFile, originFiles)) {
+            composer.appendTo = xfr;
+            composer.fileNames = fileNames;
+            boolean outputChunks = false;
+            boolean fillChunks = options.isFillRuns();
+            for (DataChunk chunk : xfr.chunks) {
+                if (chunk.file == DataChunk.OUTPUT) outputChunks = true;
+                if (chunk.file == DataChunk.FILL) fillChunks = true;
+            }
+            if (fillChunks) {
+                composer.packetIO = PacketIO.getAtLeast(PacketIO.FILL_CHUNK_VERSION);
+            } else if (outputChunks) {
+                composer.packetIO = PacketIO.getAtLeast(PacketIO.OUTPUT_CHUNK_VERSION);
+            }
+            composer.writeHeader();
+            composer.writeExisting(xfr);
+            composer.segmentStart = start;
+            composer.filePointer = start;
+            System.out.println("Composing " + Util.sizeToHumanReadable(composer.fileLength - start) + " appended to " + Util.sizeToHumanReadable(start));
+            while (composer.step()) ;
+            composer.finish(options.isCopyNonRedundantData());
+            System.out.println("Finished!");
+        }
+    }
+
+    private static void checkPrefix(TransformFile xfr, long start, File finalFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(finalFile, "r")) {
+            if (raf.length() < start)
+                throw new IOException("The destination is shorter than the output of the xfr");
+            // a cheap check that this is the same file, the last bytes the xfr produces have to match
+            int length = (int) Math.min(65536L, start);
+            xfr.seek(start - length);
+            byte[] expected = Util.readBytes(xfr, length);
+            byte[] actual = new byte[length];
+            raf.seek(start - length);
+            raf.readFully(actual);
+            if (ByteArrays.mismatch(expected, 0, actual, 0, length) != -1)
+                throw new IOException("The destination doesn't start with the output of the xfr");
+        }
+    }
+
+    private void writeExisting(TransformFile xfr) throws IOException {
+        for (DataChunk chunk : xfr.chunks) {
+            if (chunk.length == 0L) continue;
+            writeChunk(chunk);
+            if (chunk.file == 0) {
+                appendedDataSize = Math.max(appendedDataSize, chunk.offset + chunk.length);
+            } else if (chunk.file > 0) {
+                markDataUsed(new SearchResult(chunk.file, chunk.offset, chunk.length, chunk.transformedOffset));
+            }
+        }
+        destXfrPointer = appendedDataSize;
+        if (spill != null) {
+            try (InputStream in = new LimitInputStream(new RandomAccessInputStream(xfr.rads[0], xfr.dataFileOffset, false), appendedDataSize, false)) {
+                copy(in, spill);
+            }
+        }
+    }
+
+    private void composeSegments(int segments) throws IOException, TransformFileException {
+        long segmentSize = fileLength / segments;
+        segmentSize -= segmentSize % matchSize;
+        if (segmentSize < bufferSize) {
+            segments = 1;
+            segmentSize = fileLength;
+        }
+        List<TransformFileComposer> workers = new ArrayList<>(segments);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(segments, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<?>> futures = new ArrayList<>(segments);
+            for (int i = 0; i < segments; i++) {
+                TransformFileComposer worker = new TransformFileComposer(options, null, finalFile.getPath(), originSpecs);
+                workers.add(worker);
+                worker.segmentStart = segmentSize * i;
+                worker.segmentEnd = i == segments - 1 ? fileLength : segmentSize * (i + 1);
+                worker.segmentResults = new ArrayList<>();
+                worker.hint = hint;
+                worker.filePointer = worker.segmentStart;
+                for (int j = 0; j < originRafs.length; j++) {
+                    // guess where this segment starts in each origin so lookahead and lookbehind have somewhere to start from
+                    worker.highByte[j] = fileLength == 0L ? 0L : (long) (originRafs[j].length() * ((double) worker.segmentStart / fileLength));
+                }
+                futures.add(executor.submit(() -> {
+                    while (worker.step()) ;
+                    return null;
+                }));
+            }
+            long lastUpdate = System.currentTimeMillis();
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get(1L, TimeUnit.SECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastUpdate > 1000L) {
+                        lastUpdate = now;
+                        long done = 0L;
+                        for (TransformFileComposer worker : workers) {
+                            done += worker.filePointer - worker.segmentStart;
+                        }
+                        double percentComplete = ((double) (done * 1000L / fileLength)) / 10.0;
+                        System.out.println("Progress: " + Util.sizeToHumanReadable(done) + " / " + Util.sizeToHumanReadable(fileLength) + " (" + percentComplete + "%)");
+                        System.out.println();
+                    }
+                }
+            }
+            List<SearchResult> stitched = new ArrayList<>();
+            for (TransformFileComposer worker : workers) {
+                List<SearchResult> results = worker.segmentResults;
+                if (results.isEmpty()) continue;
+                if (stitched.isEmpty()) {
+                    stitched.addAll(results);
+                    continue;
+                }
+                int last = stitched.size() - 1;
+                SearchResult[] fixed = stitch(stitched.remove(last), results.get(0));
+                for (SearchResult result : fixed) {
+                    if (result.length > 0L) stitched.add(result);
+                }
+                stitched.addAll(results.subList(1, results.size()));
+            }
+            for (SearchResult result : stitched) {
+                writeResult(result);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof TransformFileException) throw (TransformFileException) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+            for (TransformFileComposer worker : workers) {
+                worker.close();
+            }
+        }
+    }
+
+    private SearchResult[] stitch(SearchResult previous, SearchResult next) throws IOException {
+        if (previous.destinationOffset + previous.length != next.destinationOffset)
+            return new SearchResult[]{previous, next};
+        if (previous.fileIndex == next.fileIndex && (previous.fileIndex == 0 || (previous.fileIndex == DataChunk.FILL ? previous.offset == next.offset : previous.offset + previous.length == next.offset))
+            && (previous.fileIndex != DataChunk.OUTPUT || previous.offset + previous.length + next.length <= previous.destinationOffset))
+            return new SearchResult[]{new SearchResult(previous.fileIndex, previous.offset, previous.length + next.length, previous.destinationOffset)};
+        if (previous.fileIndex > 0 && next.fileIndex == 0 && translateFiles[previous.fileIndex - 1] == null) {
+            long grow = highExpansion(previous, next.destinationOffset + next.length);
+            if (grow > 0L) {
+                return new SearchResult[]{
+                    new SearchResult(previous.fileIndex, previous.offset, previous.length + grow, previous.destinationOffset),
+                    new SearchResult(0, next.offset + grow, next.length - grow, next.destinationOffset + grow)
+                };
+            }
+        } else if (previous.fileIndex == 0 && next.fileIndex > 0 && translateFiles[next.fileIndex - 1] == null) {
+            int grow = lowExpansion(previous.destinationOffset, next);
+            if (grow > 0) {
+                return new SearchResult[]{
+                    new SearchResult(0, previous.offset, previous.length - grow, previous.destinationOffset),
+                    new SearchResult(next.fileIndex, next.offset - grow, next.length + grow, next.destinationOffset - grow)
+                };
+            }
+        }
+        return new SearchResult[]{previous, next};
+    }
+
     @Override
     public void close() {
         if (finalRaf != null) {
@@ -165,6 +471,15 @@ public class TransformFileComposer implements Closeable {
             } catch (Exception e) {
             }
         }
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (Exception e) {
+            }
+        }
+        if (spillFile != null) {
+            spillFile.delete();
+        }
     }
 
     private void writeHeader() throws IOException {
@@ -172,13 +487,9 @@ public class TransformFileComposer implements Closeable {
             throw new IllegalStateException("Already wrote header");
         }
         alreadyWroteHeader = true;
-        getPacketIO();
-        packetIO.writeFileHeader(out);
-
-        packetIO.write(out, new PacketFileName(finalFile.getName()));
-
+        long integrityBlockSize = options.getIntegrityBlockSize();
         List<String> fileList = new ArrayList<>(originFiles.length);
-        for (int i = 0; i < originFiles.length; i++) {
+        for (int i = 0; fileNames == null && i < originFiles.length; i++) {
             File originFile = originFiles[i];
             TransformFile translate = translateFiles[i];
             if (translate != null) {
@@ -187,12 +498,35 @@ public class TransformFileComposer implements Closeable {
                 fileList.add(originFile.toString().replace("\\", "/"));
             }
         }
+        if (fileNames != null) fileList.addAll(Arrays.asList(fileNames));
+        PacketIntegrity integrity = null;
+        if (integrityBlockSize > 0L) {
+            System.out.println("Hashing destination");
+            integrity = MerkleTree.hash(finalFile, integrityBlockSize, Runtime.getRuntime().availableProcessors());
+        }
+        if (optimizedChunks != null) {
+            headerFiles = fileList;
+            headerIntegrity = integrity;
+            return;
+        }
+
+        if (packetIO == null && options.isFillRuns()) packetIO = PacketIO.getAtLeast(PacketIO.FILL_CHUNK_VERSION);
+        if (packetIO == null && options.isSelfReferences()) packetIO = PacketIO.getAtLeast(PacketIO.OUTPUT_CHUNK_VERSION);
+        if (packetIO == null && integrity != null) packetIO = PacketIO.getAtLeast(PacketIO.INTEGRITY_VERSION);
+        getPacketIO();
+        writeHeader(packetIO, fileList, integrity);
+    }
+
+    private void writeHeader(PacketIO packetIO, List<String> fileList, PacketIntegrity integrity) throws IOException {
+        packetIO.writeFileHeader(out);
+        packetIO.write(out, new PacketFileName(finalFile.getName()));
         packetIO.write(out, new PacketFileList(fileList));
+        if (integrity != null) packetIO.write(out, integrity);
     }
 
     private void addResult(SearchResult result) throws IOException {
         markDataUsed(result);
-        TransformFile translate = result.fileIndex == 0 ? null : translateFiles[result.fileIndex - 1];
+        TransformFile translate = result.fileIndex <= 0 ? null : translateFiles[result.fileIndex - 1];
         if (translate != null) {
             List<SearchResult> newResults = new LinkedList<>();
             List<DataChunk> chunks = translate.getChunks(result.offset, result.offset + result.length);
@@ -214,48 +548,103 @@ public class TransformFileComposer implements Closeable {
                     chunkLength = chunkEnd - chunkOffset;
                 }
                 SearchResult newResult;
-                if (chunk.file == 0) {
-                    newResult = new SearchResult(0, chunkOffset, chunkLength, destPoint);
-                    long seekOffset = destPoint;
-                    long maxRead = chunkLength;
-                    newResult.overrideInput = () -> {
-                        finalRaf.seek(seekOffset);
-                        return new LimitInputStream(new RandomAccessInputStream(finalRaf, false), maxRead, false);
-                    };
+                if (chunk.file <= 0) {
+                    newResult = new SearchResult(0, destPoint, chunkLength, destPoint);
                 } else {
                     newResult = new SearchResult(result.fileIndex, veryOriginOffset, chunkLength, destPoint);
                 }
                 destPoint += chunkLength;
                 leftover -= chunkLength;
-                if (newResult.fileIndex == 0) resultsFromDestination.add(newResult);
                 writeResult(newResult);
                 if (leftover <= 0L) break;
             }
         } else {
-            if (result.fileIndex == 0) resultsFromDestination.add(result);
             writeResult(result);
         }
     }
 
     private void writeResult(SearchResult result) throws IOException {
+        if (segmentResults != null) {
+            segmentResults.add(result);
+            return;
+        }
         long offset;
         if (result.fileIndex == 0) {
+            if (spill != null) {
+                // copied now, while this part of the destination was just read
+                finalRaf.seek(result.destinationOffset);
+                copy(new LimitInputStream(new RandomAccessInputStream(finalRaf, false), result.length, false), spill);
+            } else {
+                resultsFromDestination.add(result);
+            }
             offset = destXfrPointer;
             destXfrPointer += result.length;
         } else {
             offset = result.offset;
         }
-        packetIO.write(out, new DataChunk(result.destinationOffset, result.fileIndex, offset, result.length));
+        writeChunk(new DataChunk(result.destinationOffset, result.fileIndex, offset, result.length));
+    }
+
+    private void writeChunk(DataChunk chunk) throws IOException {
+        if (optimizedChunks != null) {
+            TransformFileOptimizer.addCombined(optimizedChunks, chunk);
+        } else {
+            packetIO.write(out, chunk);
+        }
     }
 
     private void finish(boolean copyNonRedundantData) throws IOException {
+        if (optimizedChunks != null) {
+            spill.close();
+            // as optimize would, origins nothing reads from are left out and the version is the lowest the chunks need
+            boolean[] use = new boolean[headerFiles.size() + 1];
+            boolean outputChunks = false;
+            boolean fillChunks = false;
+            for (DataChunk chunk : optimizedChunks) {
+                if (chunk.file == DataChunk.OUTPUT) {
+                    outputChunks = true;
+                } else if (chunk.file == DataChunk.FILL) {
+                    fillChunks = true;
+                } else {
+                    use[chunk.file] = true;
+                }
+            }
+            List<String> newFiles = new ArrayList<>(headerFiles.size());
+            int[] mapping = new int[use.length];
+            Map<String, Integer> remap = new HashMap<>();
+            for (int i = 1; i < use.length; i++) {
+                String file = headerFiles.get(i - 1);
+                if (!use[i]) continue;
+                int idx = remap.getOrDefault(file, -1);
+                if (idx == -1) {
+                    remap.put(file, idx = remap.size() + 1);
+                    newFiles.add(file);
+                }
+                mapping[i] = idx;
+            }
+            List<DataChunk> chunks = new ArrayList<>(optimizedChunks.size());
+            for (DataChunk chunk : optimizedChunks) {
+                TransformFileOptimizer.addCombined(chunks, new DataChunk(chunk.transformedOffset, chunk.file < 0 ? chunk.file : mapping[chunk.file], chunk.offset, chunk.length));
+            }
+            packetIO = TransformFileOptimizer.packetIO(options.getIndexGranularity(), fillChunks, outputChunks, headerIntegrity != null);
+            writeHeader(packetIO, newFiles, headerIntegrity);
+            TransformFileOptimizer.writeBody(packetIO, out, chunks, newFiles.size() + 1, options.getIndexGranularity(), (o, size) -> {
+                try (InputStream in = new FileInputStream(spillFile)) {
+                    copy(new LimitInputStream(in, size, false), o);
+                }
+            });
+            return;
+        }
         packetIO.write(out, PacketEnd.instance);
         if (!copyNonRedundantData) return;
+        if (appendTo != null) {
+            try (InputStream in = new LimitInputStream(new RandomAccessInputStream(appendTo.rads[0], appendTo.dataFileOffset, false), appendedDataSize, false)) {
+                copy(in, out);
+            }
+        }
         for (SearchResult result : resultsFromDestination) {
-            finalRaf.seek(result.offset);
-            try (InputStream in = result.overrideInput != null
-                ? result.overrideInput.get()
-                : new LimitInputStream(new RandomAccessInputStream(finalRaf, false), result.length, false)) {
+            finalRaf.seek(result.destinationOffset);
+            try (InputStream in = new LimitInputStream(new RandomAccessInputStream(finalRaf, false), result.length, false)) {
                 copy(in, out);
             }
         }
@@ -263,6 +652,7 @@ public class TransformFileComposer implements Closeable {
 
     private boolean step() throws IOException {
         long lastWritten = filePointer;
+        this.lastWritten = lastWritten;
         try {
             SearchResult result;
             do {
@@ -275,6 +665,11 @@ public class TransformFileComposer implements Closeable {
             }
             addResult(expanded);
             filePointer = expanded.destinationOffset + expanded.length;
+            if (expanded.fileIndex > 0) {
+                previousFile = expanded.fileIndex;
+                previousOriginEnd = expanded.offset + expanded.length;
+                previousDestinationEnd = filePointer;
+            }
             return true;
         } catch (EOFException e) {
             if (lastWritten != filePointer) {
@@ -288,58 +683,110 @@ public class TransformFileComposer implements Closeable {
     private SearchResult expand(long lowestExpansionPoint, SearchResult result) throws IOException {
         if (result.fileIndex == 0)
             return result;
-        RandomAccessFile rafA = finalRaf;
-        RandomAccessFile rafB = originRafs[result.fileIndex - 1];
-        InputStream inA = new RandomAccessInputStream(rafA, false);
-        InputStream inB = new RandomAccessInputStream(rafB, false);
-        int lowExpansion = 0;
-        lowExpansion:
-        {
-            long maximumExpansionL = result.destinationOffset - lowestExpansionPoint;
-            int maximumExpansion = Math.max(0, (int) Math.min(result.offset, Math.min(maximumExpansionL, matchSize)));
-            if (maximumExpansion == 0) {
-                break lowExpansion;
-            }
-            long destinationOffset = result.destinationOffset - maximumExpansion;
-            long originOffset = result.offset - maximumExpansion;
-            rafA.seek(destinationOffset);
-            rafB.seek(originOffset);
-            readFully(inA, expansionBytesA);
-            readFully(inB, expansionBytesB);
-            for (int i = maximumExpansion - 1; i >= 0; i--) {
-                if (expansionBytesA[i] == expansionBytesB[i])
-                    lowExpansion += 1;
-                else
-                    break;
-            }
+        if (result.fileIndex == DataChunk.FILL)
+            return expandFill(lowestExpansionPoint, result);
+        long highestExpansionPoint = segmentEnd;
+        long room = 0L;
+        if (result.fileIndex == DataChunk.OUTPUT) {
+            // the output being copied has to end before the chunk copying it starts
+            room = result.destinationOffset - result.offset - result.length;
+            lowestExpansionPoint = Math.max(lowestExpansionPoint, result.destinationOffset - room);
         }
-        long highExpansion = 0L;
-        {
-            rafA.seek(result.destinationOffset + result.length);
-            rafB.seek(result.offset + result.length);
-            checkLoop:
-            while (true) {
-                int readA = readFully(inA, bufferA);
-                int readB = readFully(inB, bufferB);
-                int amountToCheck = Math.min(readA, readB);
-                for (int i = 0; i < amountToCheck; i++) {
-                    if (bufferA[i] != bufferB[i]) {
-                        highExpansion += i;
-                        break checkLoop;
-                    }
-                }
-                highExpansion += amountToCheck;
-                if (amountToCheck < bufferSize) break;
-            }
+        int lowExpansion = lowExpansion(lowestExpansionPoint, result);
+        if (result.fileIndex == DataChunk.OUTPUT) {
+            highestExpansionPoint = Math.min(highestExpansionPoint, result.destinationOffset + result.length + room - lowExpansion);
         }
+        long highExpansion = highExpansion(result, highestExpansionPoint);
         if (lowExpansion == 0 && highExpansion == 0L)
             return result;
         return new SearchResult(result.fileIndex, result.offset - lowExpansion, result.length + lowExpansion + highExpansion, result.destinationOffset - lowExpansion);
     }
 
+    // a fill takes in every byte with its value on either side, however far that goes
+    private SearchResult expandFill(long lowestExpansionPoint, SearchResult result) throws IOException {
+        byte value = (byte) result.offset;
+        long start = result.destinationOffset;
+        while (start > lowestExpansionPoint) {
+            int amount = (int) Math.min(bufferSize, start - lowestExpansionPoint);
+            destinationWindow.fill(start - amount, amount);
+            byte[] a = destinationWindow.array();
+            int offset = destinationWindow.offsetOf(start - amount);
+            int i = amount;
+            while (i > 0 && a[offset + i - 1] == value) i--;
+            start -= amount - i;
+            if (i > 0) break;
+        }
+        long end = result.destinationOffset + result.length;
+        while (end < segmentEnd) {
+            int read = destinationWindow.fill(end, (int) Math.min(bufferSize, segmentEnd - end));
+            if (read <= 0) break;
+            byte[] a = destinationWindow.array();
+            int offset = destinationWindow.offsetOf(end);
+            int i = 0;
+            while (i < read && a[offset + i] == value) i++;
+            end += i;
+            if (i < read) break;
+        }
+        return new SearchResult(DataChunk.FILL, result.offset, end - start, start);
+    }
+
+    private int lowExpansion(long lowestExpansionPoint, SearchResult result) throws IOException {
+        ReadWindow windowA = destinationWindow;
+        ReadWindow windowB = sourceWindow(result);
+        long maximumExpansionL = result.destinationOffset - lowestExpansionPoint;
+        int maximumExpansion = Math.max(0, (int) Math.min(result.offset, Math.min(maximumExpansionL, matchSize)));
+        if (maximumExpansion == 0) {
+            return 0;
+        }
+        long destinationOffset = result.destinationOffset - maximumExpansion;
+        long originOffset = result.offset - maximumExpansion;
+        windowA.fill(destinationOffset, maximumExpansion);
+        windowB.fill(originOffset, maximumExpansion);
+        byte[] a = windowA.array();
+        byte[] b = windowB.array();
+        int offsetA = windowA.offsetOf(destinationOffset);
+        int offsetB = windowB.offsetOf(originOffset);
+        int lowExpansion = 0;
+        for (int i = maximumExpansion - 1; i >= 0; i--) {
+            if (a[offsetA + i] == b[offsetB + i])
+                lowExpansion += 1;
+            else
+                break;
+        }
+        return lowExpansion;
+    }
+
+    private long highExpansion(SearchResult result, long highestExpansionPoint) throws IOException {
+        ReadWindow windowA = destinationWindow;
+        ReadWindow windowB = sourceWindow(result);
+        long positionA = result.destinationOffset + result.length;
+        long positionB = result.offset + result.length;
+        long highExpansion = 0L;
+        long maximumExpansion = highestExpansionPoint - positionA;
+        while (highExpansion < maximumExpansion) {
+            int readA = windowA.fill(positionA + highExpansion, bufferSize);
+            int readB = windowB.fill(positionB + highExpansion, bufferSize);
+            int amountToCheck = (int) Math.min(Math.min(readA, readB), maximumExpansion - highExpansion);
+            byte[] a = windowA.array();
+            byte[] b = windowB.array();
+            int offsetA = windowA.offsetOf(positionA + highExpansion);
+            int offsetB = windowB.offsetOf(positionB + highExpansion);
+            int mismatch = ByteArrays.mismatch(a, offsetA, b, offsetB, amountToCheck);
+            if (mismatch != -1) {
+                return highExpansion + mismatch;
+            }
+            highExpansion += amountToCheck;
+            if (amountToCheck < bufferSize) break;
+        }
+        return highExpansion;
+    }
+
+    private ReadWindow sourceWindow(SearchResult result) {
+        return result.fileIndex == DataChunk.OUTPUT ? selfWindow : originWindows[result.fileIndex - 1];
+    }
+
     private SearchResult searchStep() throws IOException {
-        finalRaf.seek(filePointer);
-        long leftoverBytes = finalRaf.length() - filePointer;
+        long leftoverBytes = segmentEnd - filePointer;
         if (leftoverBytes < matchSize) {
             if (leftoverBytes == 0L)
                 throw new EOFException();
@@ -347,132 +794,257 @@ public class TransformFileComposer implements Closeable {
             return null;
         }
         byte[] buffer = searchBuffer;
-        readFully(finalRaf, buffer);
+        destinationWindow.fill(filePointer, matchSize);
+        System.arraycopy(destinationWindow.array(), destinationWindow.offsetOf(filePointer), buffer, 0, matchSize);
         SearchResult result = search(buffer, filePointer);
         filePointer += matchSize;
         return result;
     }
 
     private SearchResult search(byte[] buffer, long filePointer) throws IOException {
+        if (fillRuns && isRun(buffer))
+            return new SearchResult(DataChunk.FILL, buffer[0] & 0xff, buffer.length, filePointer);
+        if (hint != null) {
+            SearchResult result = searchHint(buffer, filePointer);
+            if (result != null) {
+                lastIndex = result.fileIndex;
+                return result;
+            }
+        }
         int startFrom, endAt;
-        if (likeConcatenation) {
+        if (adaptiveOrder) {
+            rankOrigins();
+            probeCold = coldBudget == 0 || ++adaptiveSearches % coldBudget == 0L || allCold();
+            startFrom = 0;
+            endAt = originFiles.length;
+        } else if (likeConcatenation) {
             startFrom = Math.max(0, lastIndex - 1);
             endAt = Math.min(originFiles.length, lastIndex + 2);
         } else {
             startFrom = 0;
             endAt = originFiles.length;
         }
-        for (int i = startFrom; i < endAt; i++) {
-            SearchResult result = search(buffer, i, filePointer);
-            if (result != null) {
-                lastIndex = result.fileIndex;
-                return result;
+        SearchResult result = null;
+        if (maxCandidates > 1) {
+            result = selectCandidate(buffer, filePointer, startFrom, endAt);
+        } else {
+            for (int i = startFrom; i < endAt && result == null; i++) {
+                int fileIndex = originOrder[i];
+                if (isCold(fileIndex)) continue;
+                result = search(buffer, fileIndex, filePointer, null, 1);
+                recordSearch(fileIndex, result != null);
+            }
+        }
+        if (result != null) {
+            lastIndex = result.fileIndex;
+            if (hint != null) {
+                long oldPosition = hint.oldPosition(result.fileIndex - 1, result.offset);
+                if (oldPosition != -1L) hintDrift = filePointer - oldPosition;
             }
+            return result;
         }
+        if (selfReferences)
+            return searchOutput(filePointer);
         return null;
     }
 
-    private SearchResult search(byte[] buffer, int fileIndex, long filePointer) throws IOException {
-        RandomAccessFile raf = originRafs[fileIndex];
-        RandomAccessInputStream in = new RandomAccessInputStream(raf, false);
+    // the origin of the last match goes first, then the rest by recent hit rate, then by index so that the same input
+    // always gives the same order
+    // an insertion sort, as the order barely changes from one search to the next
+    private void rankOrigins() {
+        int first = lastIndex - 1;
+        for (int i = 1; i < originOrder.length; i++) {
+            int fileIndex = originOrder[i];
+            int j = i - 1;
+            while (j >= 0 && ranksBefore(fileIndex, originOrder[j], first)) {
+                originOrder[j + 1] = originOrder[j];
+                j--;
+            }
+            originOrder[j + 1] = fileIndex;
+        }
+    }
+
+    private boolean ranksBefore(int a, int b, int first) {
+        if (a == first || b == first) return a == first;
+        if (originScore[a] != originScore[b]) return originScore[a] > originScore[b];
+        return a < b;
+    }
+
+    private void recordSearch(int fileIndex, boolean hit) {
+        if (!adaptiveOrder) return;
+        originScore[fileIndex] -= originScore[fileIndex] >> 4;
+        if (hit) {
+            originScore[fileIndex] += 4096;
+            originMisses[fileIndex] = 0;
+        } else {
+            originMisses[fileIndex] += 1;
+        }
+    }
+
+    // the origin of the last match is never cold
+    private boolean isCold(int fileIndex) {
+        return adaptiveOrder && !probeCold && wentCold(fileIndex);
+    }
+
+    private boolean wentCold(int fileIndex) {
+        return coldBudget > 0 && originMisses[fileIndex] >= coldBudget && fileIndex != lastIndex - 1;
+    }
+
+    private boolean allCold() {
+        for (int i = 0; i < originMisses.length; i++) {
+            if (!wentCold(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isRun(byte[] buffer) {
+        byte value = buffer[0];
+        for (int i = 1; i < buffer.length; i++) {
+            if (buffer[i] != value) return false;
+        }
+        return true;
+    }
+
+    // gathers up to maxCandidates matches, including one continuing where the last chunk left off, and picks the one
+    // that saves the most literal data once expanded, less what another chunk and a seek elsewhere cost
+    private SearchResult selectCandidate(byte[] buffer, long filePointer, int startFrom, int endAt) throws IOException {
+        List<SearchResult> candidates = new ArrayList<>();
+        if (previousFile > 0) {
+            long offset = previousOriginEnd + (filePointer - previousDestinationEnd);
+            ReadWindow window = originWindows[previousFile - 1];
+            if (window.fill(offset, buffer.length) == buffer.length
+                && ByteArrays.mismatch(buffer, 0, window.array(), window.offsetOf(offset), buffer.length) == -1) {
+                candidates.add(new SearchResult(previousFile, offset, buffer.length, filePointer));
+            }
+        }
+        for (int i = startFrom; i < endAt && candidates.size() < maxCandidates; i++) {
+            int fileIndex = originOrder[i];
+            if (isCold(fileIndex)) continue;
+            int before = candidates.size();
+            search(buffer, fileIndex, filePointer, candidates, maxCandidates);
+            recordSearch(fileIndex, candidates.size() > before);
+        }
+        SearchResult best = null;
+        long bestScore = Long.MIN_VALUE;
+        for (SearchResult candidate : candidates) {
+            long length = candidate.length + lowExpansion(lastWritten, candidate)
+                + highExpansion(candidate, Math.min(segmentEnd, candidate.destinationOffset + candidate.length + scoreLimit));
+            long score = length - chunkOverhead;
+            boolean nearby = candidate.fileIndex == previousFile
+                && candidate.offset >= previousOriginEnd && candidate.offset - previousOriginEnd <= windowSize;
+            if (!nearby) score -= options.getSeekCost();
+            if (score > bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    // checks the origin the hint has for this part of the destination, expand() takes it from there if it matches
+    private SearchResult searchHint(byte[] buffer, long filePointer) throws IOException {
+        DataChunk chunk = hint.chunkAt(filePointer - hintDrift);
+        if (chunk == null) return null;
+        int fileIndex = hint.originIndex(chunk);
+        long offset = chunk.offset + (filePointer - hintDrift - chunk.transformedOffset);
+        ReadWindow window = originWindows[fileIndex];
+        if (window.fill(offset, buffer.length) < buffer.length) return null;
+        if (ByteArrays.mismatch(buffer, 0, window.array(), window.offsetOf(offset), buffer.length) != -1) return null;
+        return new SearchResult(fileIndex + 1, offset, buffer.length, filePointer);
+    }
+
+    // looks for matchSize bytes starting anywhere in the next matchSize bytes that already appeared in the output
+    private SearchResult searchOutput(long filePointer) throws IOException {
+        if (selfIndex == null) {
+            selfIndex = new long[Integer.highestOneBit(Math.max(65536, selfIndexSize / options.getSegments()))];
+            selfIndexed = segmentStart;
+            hashRemovePower = 1L;
+            for (int i = 1; i < matchSize; i++) hashRemovePower *= hashMultiplier;
+        }
+        while (selfIndexed + matchSize <= filePointer) {
+            selfWindow.fill(selfIndexed, matchSize);
+            int slot = slot(hash(selfWindow.array(), selfWindow.offsetOf(selfIndexed)));
+            if (selfIndex[slot] == 0L) selfIndex[slot] = selfIndexed + 1L;
+            selfIndexed += matchSize;
+        }
+        int available = (int) Math.min(destinationWindow.fill(filePointer, matchSize * 2 - 1), segmentEnd - filePointer);
+        if (available < matchSize) return null;
+        byte[] a = destinationWindow.array();
+        int offsetA = destinationWindow.offsetOf(filePointer);
+        long hash = hash(a, offsetA);
+        for (int i = 0; ; i++) {
+            long candidate = selfIndex[slot(hash)] - 1L;
+            if (candidate >= 0L) {
+                selfWindow.fill(candidate, matchSize);
+                if (ByteArrays.mismatch(a, offsetA + i, selfWindow.array(), selfWindow.offsetOf(candidate), matchSize) == -1)
+                    return new SearchResult(DataChunk.OUTPUT, candidate, matchSize, filePointer + i);
+            }
+            if (i + matchSize >= available || i == matchSize - 1) return null;
+            hash = (hash - (a[offsetA + i] & 0xff) * hashRemovePower) * hashMultiplier + (a[offsetA + i + matchSize] & 0xff);
+        }
+    }
+
+    private long hash(byte[] data, int offset) {
+        long hash = 0L;
+        for (int i = 0; i < matchSize; i++) {
+            hash = hash * hashMultiplier + (data[offset + i] & 0xff);
+        }
+        return hash;
+    }
+
+    private int slot(long hash) {
+        return (int) ((hash * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(selfIndex.length)));
+    }
+
+    // returns the first match, and if found isn't null adds matches to it until it has max of them
+    private SearchResult search(byte[] buffer, int fileIndex, long filePointer, List<SearchResult> found, int max) throws IOException {
+        ReadWindow window = originWindows[fileIndex];
         long currentPosition = 0L;
-        long filesize = raf.length();
+        long filesize = originRafs[fileIndex].length();
         if (lookahead > 0L) {
             filesize = Math.min(filesize, highByte[fileIndex] + lookahead);
         }
         if (lookbehind >= 0L) {
             currentPosition = Math.max(0L, highByte[fileIndex] - lookbehind);
-            currentPosition -= currentPosition % 16384;
+            currentPosition -= currentPosition % bufferSize;
         }
-        raf.seek(currentPosition);
-        boolean first = true;
-        boolean hitEnd = false;
-        int haystackSize;
-        while (currentPosition < filesize && !hitEnd) {
+        int haystackWanted = bufferSize + buffer.length - 1;
+        while (currentPosition < filesize) {
             long skipOverUsedData = skipOverUsedData(fileIndex, currentPosition);
             if (skipOverUsedData != -1) {
-                first = true;
                 currentPosition = skipOverUsedData;
-                raf.seek(currentPosition);
-            }
-            if (first) {
-                first = false;
-                haystackSize = readFully(in, bufferA) + readFully(in, bufferB);
-            } else {
-                currentPosition += bufferA.length;
-                byte[] tmp = bufferA;
-                bufferA = bufferB;
-                bufferB = tmp;
-                haystackSize = bufferA.length + readFully(in, bufferB);
+                continue;
             }
-            if (haystackSize < bufferA.length + bufferB.length)
-                hitEnd = true;
-            int searchPosition = search(buffer, bufferA, bufferB, tmpBuffer, haystackSize);
-            if (searchPosition != -1) {
-                return new SearchResult(fileIndex + 1, currentPosition + searchPosition, buffer.length, filePointer);
+            int haystackSize = window.fill(currentPosition, haystackWanted);
+            int count = haystackSize - buffer.length + 1;
+            int from = 0;
+            while (from < count) {
+                int searchPosition = ByteArrays.indexOf(window.array(), window.offsetOf(currentPosition) + from, count - from, buffer);
+                if (searchPosition == -1) break;
+                SearchResult result = new SearchResult(fileIndex + 1, currentPosition + from + searchPosition, buffer.length, filePointer);
+                if (found == null) return result;
+                found.add(result);
+                if (found.size() >= max) return found.get(0);
+                from += searchPosition + 1;
             }
+            if (haystackSize < haystackWanted)
+                break;
+            currentPosition += bufferSize;
         }
-        return null;
-    }
-
-    private int search(byte[] needle, byte[] haystackPart1, byte[] haystackPart2, byte[] tmpBuffer, int haystackSize) {
-        int lastSearch = Math.min(haystackSize - needle.length + 1, haystackPart1.length);
-        System.arraycopy(haystackPart1, 0, tmpBuffer, 0, haystackPart1.length);
-        System.arraycopy(haystackPart2, 0, tmpBuffer, haystackPart1.length, haystackPart2.length);
-        outerLoop:
-        for (int i = 0; i < lastSearch; i++) {
-            for (int j = 0; j < needle.length; j++) {
-                if (tmpBuffer[i + j] != needle[j]) continue outerLoop;
-            }
-            return i;
-        }
-        return -1;
+        return found == null || found.isEmpty() ? null : found.get(0);
     }
 
     private long skipOverUsedData(int fileIndex, long currentPosition) {
         if (lookbehind >= 0L) return -1L;
-        List<UseRange> ranges = usageRanges[fileIndex];
-        for (UseRange range : ranges) {
-            if (range.contains(currentPosition)) {
-                return range.end;
-            }
-        }
-        return -1L;
+        return usageRanges[fileIndex].coveredEnd(currentPosition);
     }
 
     private void markDataUsed(SearchResult result) {
-        if (result.fileIndex == 0) return;
+        if (result.fileIndex <= 0) return;
         int index = result.fileIndex - 1;
         highByte[index] = Math.max(highByte[index], result.offset + result.length);
         if (lookbehind >= 0L) return;
-        List<UseRange> ranges = usageRanges[index];
-        UseRange range = new UseRange(result.offset, result.offset + result.length);
-        for (Iterator<UseRange> it = ranges.iterator(); it.hasNext(); ) {
-            UseRange r = it.next();
-            if (range.overlap(r) > -(matchSize * 8)) {
-                it.remove();
-                range = range.combine(r);
-            }
-        }
-        ranges.add(range);
-    }
-
-    private int readFully(InputStream in, byte[] buffer) throws IOException {
-        int read = 0;
-        int c;
-        while (read < buffer.length && (c = in.read(buffer, read, buffer.length - read)) != -1) {
-            read += c;
-        }
-        return read;
-    }
-
-    private int readFully(RandomAccessFile raf, byte[] buffer) throws IOException {
-        return readFully(new RandomAccessInputStream(raf, false), buffer);
-    }
-
-    @FunctionalInterface
-    private interface InputProvider {
-        InputStream get() throws IOException;
+        usageRanges[index].add(result.offset, result.offset + result.length);
     }
 
     private class SearchResult {
@@ -480,7 +1052,6 @@ public class TransformFileComposer implements Closeable {
         private final long offset;
         private final long length;
         private final long destinationOffset;
-        private InputProvider overrideInput;
 
         private SearchResult(int fileIndex, long offset, long length, long destinationOffset) {
             this.fileIndex = fileIndex;
@@ -492,41 +1063,4 @@ public class TransformFileComposer implements Closeable {
             }
         }
     }
-
-    private class UseRange {
-        private final long start;
-        private final long end;
-
-        private UseRange(long start, long end) {
-            this.start = start;
-            this.end = end;
-        }
-
-        private boolean contains(long value) {
-            return (value >= start && value < end);
-        }
-
-        private long overlap(UseRange other) {
-            UseRange low, high;
-            if (other.start < start) {
-                low = other;
-                high = this;
-            } else {
-                high = this;
-                low = other;
-            }
-            return low.end - high.start;
-        }
-
-        private boolean overlaps(UseRange other) {
-            return overlap(other) > 0;
-        }
-
-        private UseRange combine(UseRange other) {
-            return new UseRange(
-                Math.min(this.start, other.start),
-                Math.max(this.end, other.end)
-            );
-        }
-    }
 }
@@ -1,5 +1,6 @@
 package io.siggi.transformfile;
 
+import io.siggi.transformfile.exception.TransformFileException;
 import io.siggi.transformfile.io.LimitInputStream;
 import io.siggi.transformfile.io.RandomAccessInputStream;
 
@@ -8,12 +9,17 @@ import io.siggi.transformfile.packet.types.PacketEnd;
 import io.siggi.transformfile.packet.types.PacketFileList;
 import io.siggi.transformfile.packet.types.PacketFileName;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static io.siggi.transformfile.io.Util.*;
 
@@ -22,21 +28,127 @@ public class TransformFileFlipper {
         if (indexToFlip == 0) {
             throw new IllegalArgumentException("Can't flip index 0");
         }
-        List<DataChunk> chunks = file.getChunks(indexToFlip);
-        chunks.sort((chunkA, chunkB) -> {
-            if (chunkA.offset > chunkB.offset) {
-                return 1;
-            } else if (chunkA.offset < chunkB.offset) {
-                return -1;
-            } else {
-                return 0;
+        if (file.chunks == null) file.loadChunks();
+        int[] partition = new int[file.files.length];
+        partition[indexToFlip] = indexToFlip;
+        DataChunk[][] byFile = partition(file.chunks, partition);
+        flip(file, byFile[indexToFlip], file.files[indexToFlip], out, newSourceName, newDestination);
+    }
+
+    // flips every dependency at once, writing outputs[i] from newDestinations[i] for each dependency i
+    // the chunks are split up by dependency in a single pass, and the reverse xfrs are written by up to threads at a
+    // time, dependencies listed more than once under the same name are flipped once into the output of the first
+    public static void flipAll(TransformFile file, File[] outputs, String newSourceName, File[] newDestinations, int threads) throws IOException, TransformFileException {
+        if (file.chunks == null) file.loadChunks();
+        int[] partition = new int[file.files.length];
+        for (int i = 1; i < file.files.length; i++) {
+            partition[i] = i;
+            for (int j = 1; j < i; j++) {
+                if (file.files[j].equals(file.files[i])) {
+                    partition[i] = j;
+                    break;
+                }
+            }
+        }
+        DataChunk[][] byFile = partition(file.chunks, partition);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 1; i < file.files.length; i++) {
+                if (partition[i] != i) continue;
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    try (OutputStream out = new FileOutputStream(outputs[index])) {
+                        flip(file, byFile[index], file.files[index], out, newSourceName, newDestinations[index]);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof TransformFileException) throw (TransformFileException) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // the chunks reading from each dependency, sorted by where they read from, partition maps a file index to the
+    // one it's flipped with, or 0 if it isn't flipped
+    private static DataChunk[][] partition(DataChunk[] chunks, int[] partition) {
+        int[] counts = new int[partition.length];
+        for (DataChunk chunk : chunks) {
+            if (chunk.file < 1 || partition[chunk.file] == 0) continue;
+            counts[partition[chunk.file]] += 1;
+        }
+        DataChunk[][] byFile = new DataChunk[partition.length][];
+        long[][] keys = new long[partition.length][];
+        for (int i = 0; i < partition.length; i++) {
+            byFile[i] = new DataChunk[counts[i]];
+            keys[i] = new long[counts[i]];
+            counts[i] = 0;
+        }
+        for (DataChunk chunk : chunks) {
+            if (chunk.file < 1 || partition[chunk.file] == 0) continue;
+            int index = partition[chunk.file];
+            byFile[index][counts[index]] = chunk;
+            keys[index][counts[index]] = chunk.offset;
+            counts[index] += 1;
+        }
+        for (int i = 0; i < partition.length; i++) {
+            sort(keys[i], byFile[i]);
+        }
+        return byFile;
+    }
+
+    // a stable merge sort of chunks by keys, which is already in order for most xfrs so runs that are get skipped
+    private static void sort(long[] keys, DataChunk[] chunks) {
+        if (keys.length < 2) return;
+        long[] keyBuffer = new long[keys.length];
+        DataChunk[] chunkBuffer = new DataChunk[chunks.length];
+        for (int width = 1; width < keys.length; width *= 2) {
+            for (int low = 0; low < keys.length - width; low += width * 2) {
+                int middle = low + width;
+                int high = Math.min(low + width * 2, keys.length);
+                if (keys[middle - 1] <= keys[middle]) continue;
+                int i = low;
+                int j = middle;
+                int k = low;
+                while (i < middle && j < high) {
+                    if (keys[j] < keys[i]) {
+                        keyBuffer[k] = keys[j];
+                        chunkBuffer[k++] = chunks[j++];
+                    } else {
+                        keyBuffer[k] = keys[i];
+                        chunkBuffer[k++] = chunks[i++];
+                    }
+                }
+                while (i < middle) {
+                    keyBuffer[k] = keys[i];
+                    chunkBuffer[k++] = chunks[i++];
+                }
+                while (j < high) {
+                    keyBuffer[k] = keys[j];
+                    chunkBuffer[k++] = chunks[j++];
+                }
+                System.arraycopy(keyBuffer, low, keys, low, high - low);
+                System.arraycopy(chunkBuffer, low, chunks, low, high - low);
             }
-        });
+        }
+    }
+
+    private static void flip(TransformFile file, DataChunk[] chunks, String targetName, OutputStream out, String newSourceName, File newDestination) throws IOException {
         long xfrPosition = 0L;
         long currentPosition = 0L;
         long fileLength = newDestination.length();
-        List<DataChunk> indexZeroChunks = new LinkedList<>();
-        List<DataChunk> newChunks = new LinkedList<>();
+        List<DataChunk> indexZeroChunks = new ArrayList<>();
+        List<DataChunk> newChunks = new ArrayList<>();
         for (DataChunk chunk : chunks) {
             if (chunk.offset < currentPosition) {
                 if (chunk.offset + chunk.length < currentPosition)
@@ -68,7 +180,7 @@ public class TransformFileFlipper {
         packetIO.writeFileHeader(out);
 
         if (file.getFilename() != null) {
-            packetIO.write(out, new PacketFileName(file.files[indexToFlip]));
+            packetIO.write(out, new PacketFileName(targetName));
         }
 
         packetIO.write(out, new PacketFileList(Arrays.asList(new String[]{newSourceName})));
@@ -0,0 +1,257 @@
+package io.siggi.transformfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+
+public class TransformFileInPlace {
+    private static final int bufferSize = 1048576;
+    private static final long memoryBudget = 64L * 1024L * 1024L;
+
+    // rewrites origin into the output of tf, which must only read from its first dependency
+    // copies run in an order that reads every region before it gets overwritten, and copies caught in a cycle
+    // are read into memory (or a spill file next to the origin once that gets too big) and written at the end
+    public static void transform(TransformFile tf, File origin) throws IOException {
+        if (tf.chunks == null) tf.loadChunks();
+        List<DataChunk> copies = new ArrayList<>();
+        List<DataChunk> literals = new ArrayList<>();
+        List<DataChunk> outputCopies = new ArrayList<>();
+        for (DataChunk chunk : tf.chunks) {
+            if (chunk.length == 0L) continue;
+            if (chunk.file == 0 || chunk.file == DataChunk.FILL) {
+                literals.add(chunk);
+            } else if (chunk.file == DataChunk.OUTPUT) {
+                outputCopies.add(chunk);
+            } else if (chunk.file == 1) {
+                copies.add(chunk);
+            } else {
+                throw new IOException("In place transforms need an xfr with a single dependency");
+            }
+        }
+        int count = copies.size();
+        long[] writeStart = new long[count];
+        for (int i = 0; i < count; i++) {
+            writeStart[i] = copies.get(i).transformedOffset;
+        }
+        // copy i has to run before every copy in overlapLow[i]..overlapHigh[i] because it reads what they write
+        int[] overlapLow = new int[count];
+        int[] overlapHigh = new int[count];
+        int[] waitingFor = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            DataChunk copy = copies.get(i);
+            int low = lastStartingBefore(writeStart, copy.offset + 1L);
+            if (low < 0 || writeStart[low] + copies.get(low).length <= copy.offset) low++;
+            int high = lastStartingBefore(writeStart, copy.offset + copy.length);
+            overlapLow[i] = low;
+            overlapHigh[i] = high;
+            if (low <= high) {
+                waitingFor[low] += 1;
+                waitingFor[high + 1] -= 1;
+            }
+        }
+        for (int i = 1; i <= count; i++) {
+            waitingFor[i] += waitingFor[i - 1];
+        }
+        for (int i = 0; i < count; i++) {
+            if (overlapLow[i] <= i && i <= overlapHigh[i]) waitingFor[i] -= 1;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(origin, "rw");
+             Spill spill = new Spill(origin)) {
+            FileChannel channel = raf.getChannel();
+            byte[] buffer = new byte[bufferSize];
+            boolean[] done = new boolean[count];
+            Deque<Integer> ready = new ArrayDeque<>();
+            for (int i = 0; i < count; i++) {
+                if (waitingFor[i] == 0) ready.add(i);
+            }
+            PriorityQueue<Integer> bySize = new PriorityQueue<>(Math.max(1, count), (a, b) -> Long.compare(copies.get(a).length, copies.get(b).length));
+            for (int i = 0; i < count; i++) {
+                bySize.add(i);
+            }
+            List<Integer> deferred = new ArrayList<>();
+            List<Long> deferredAt = new ArrayList<>();
+            int finished = 0;
+            while (finished < count) {
+                Integer next = ready.poll();
+                if (next == null) {
+                    // every remaining copy is waiting on another one, so save the smallest one's source for later
+                    do {
+                        next = bySize.poll();
+                    } while (done[next]);
+                    DataChunk copy = copies.get(next);
+                    deferred.add(next);
+                    deferredAt.add(spill.save(channel, copy.offset, copy.length, buffer));
+                } else {
+                    DataChunk copy = copies.get(next);
+                    move(channel, copy.offset, copy.transformedOffset, copy.length, buffer);
+                }
+                done[next] = true;
+                finished++;
+                for (int j = overlapLow[next]; j <= overlapHigh[next]; j++) {
+                    if (j == next || done[j]) continue;
+                    if (--waitingFor[j] == 0) ready.add(j);
+                }
+            }
+            for (int i = 0; i < deferred.size(); i++) {
+                DataChunk copy = copies.get(deferred.get(i));
+                spill.restore(channel, i, deferredAt.get(i), copy.transformedOffset, copy.length, buffer);
+            }
+            for (DataChunk literal : literals) {
+                if (literal.file == DataChunk.FILL) {
+                    fill(channel, literal, buffer);
+                    continue;
+                }
+                tf.rads[0].seek(tf.dataFileOffset + literal.offset);
+                long position = literal.transformedOffset;
+                long left = literal.length;
+                while (left > 0L) {
+                    int c = tf.rads[0].read(buffer, 0, (int) Math.min(buffer.length, left));
+                    if (c == -1) throw new IOException("Unexpected end of xfr");
+                    write(channel, buffer, c, position);
+                    position += c;
+                    left -= c;
+                }
+            }
+            // these read finished output, and only output before themselves, so they go last and in order
+            for (DataChunk copy : outputCopies) {
+                move(channel, copy.offset, copy.transformedOffset, copy.length, buffer);
+            }
+            raf.setLength(tf.length());
+            channel.force(false);
+            if (!deferred.isEmpty()) {
+                System.err.println("Buffered " + deferred.size() + " of " + count + " copies (" + spill.size + " bytes) to break overwrite cycles");
+            }
+        }
+    }
+
+    private static void fill(FileChannel channel, DataChunk chunk, byte[] buffer) throws IOException {
+        Arrays.fill(buffer, (byte) chunk.offset);
+        for (long position = 0L; position < chunk.length; ) {
+            int amount = (int) Math.min(buffer.length, chunk.length - position);
+            write(channel, buffer, amount, chunk.transformedOffset + position);
+            position += amount;
+        }
+    }
+
+    private static int lastStartingBefore(long[] starts, long position) {
+        int low = 0;
+        int high = starts.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < position) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // like memmove, copies in the direction that never overwrites source bytes before they're read
+    private static void move(FileChannel channel, long from, long to, long length, byte[] buffer) throws IOException {
+        if (from == to) return;
+        if (to < from) {
+            for (long position = 0L; position < length; ) {
+                int amount = (int) Math.min(buffer.length, length - position);
+                read(channel, buffer, amount, from + position);
+                write(channel, buffer, amount, to + position);
+                position += amount;
+            }
+        } else {
+            for (long position = length; position > 0L; ) {
+                int amount = (int) Math.min(buffer.length, position);
+                position -= amount;
+                read(channel, buffer, amount, from + position);
+                write(channel, buffer, amount, to + position);
+            }
+        }
+    }
+
+    private static void read(FileChannel channel, byte[] buffer, int amount, long position) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, amount);
+        while (byteBuffer.hasRemaining()) {
+            if (channel.read(byteBuffer, position + byteBuffer.position()) == -1)
+                throw new IOException("Unexpected end of origin");
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] buffer, int amount, long position) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, amount);
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer, position + byteBuffer.position());
+        }
+    }
+
+    private static class Spill implements AutoCloseable {
+        private final File directory;
+        private final List<byte[]> memory = new ArrayList<>();
+        private File file;
+        private RandomAccessFile raf;
+        private long size = 0L;
+
+        private Spill(File origin) {
+            this.directory = origin.getAbsoluteFile().getParentFile();
+        }
+
+        private long save(FileChannel channel, long offset, long length, byte[] buffer) throws IOException {
+            long at = size;
+            if (raf == null && size + length <= memoryBudget) {
+                byte[] data = new byte[(int) length];
+                read(channel, data, data.length, offset);
+                memory.add(data);
+            } else {
+                if (raf == null) {
+                    file = File.createTempFile("inplace", ".spill", directory);
+                    raf = new RandomAccessFile(file, "rw");
+                    long position = 0L;
+                    for (byte[] data : memory) {
+                        write(raf.getChannel(), data, data.length, position);
+                        position += data.length;
+                    }
+                    memory.clear();
+                }
+                for (long position = 0L; position < length; ) {
+                    int amount = (int) Math.min(buffer.length, length - position);
+                    read(channel, buffer, amount, offset + position);
+                    write(raf.getChannel(), buffer, amount, at + position);
+                    position += amount;
+                }
+            }
+            size += length;
+            return at;
+        }
+
+        private void restore(FileChannel channel, int index, long at, long to, long length, byte[] buffer) throws IOException {
+            if (raf == null) {
+                byte[] data = memory.get(index);
+                write(channel, data, data.length, to);
+                return;
+            }
+            for (long position = 0L; position < length; ) {
+                int amount = (int) Math.min(buffer.length, length - position);
+                read(raf.getChannel(), buffer, amount, at + position);
+                write(channel, buffer, amount, to + position);
+                position += amount;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (raf != null) {
+                raf.close();
+                file.delete();
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package io.siggi.transformfile;
 
 import io.siggi.transformfile.exception.TransformFileException;
 import io.siggi.transformfile.io.CountingInputStream;
+import io.siggi.transformfile.io.FileHandlePool;
+import io.siggi.transformfile.io.RandomAccessDataOffHeap;
 import io.siggi.transformfile.io.Util;
 import io.siggi.transformfile.packet.PacketIO;
 import io.siggi.transformfile.packet.types.Packet;
@@ -44,7 +46,21 @@ public class TransformFileMain {
             System.out.println("      Origins can be specified as intermediateDestination:xfrfile where the");
             System.out.println("      xfrfile produces the intermediate destinationfile. The output xfr will point");
             System.out.println("      to the original file.");
+            System.out.println("      with -Doptimize=1 the xfr is written in the optimized layout, without needing optimize after");
             System.out.println("    aliases: c");
+            System.out.println("Estimate the size of an xfr without composing it:");
+            System.out.println("    plan destination.dat origin.dat [origin2.dat] [origin3.dat]");
+            System.out.println("      looks up -Dsamples=[4096] random blocks of -Dmatchsize bytes of the destination in the origins");
+            System.out.println("      and prints the estimates with 95% confidence bounds, lookahead and lookbehind aren't modeled");
+            System.out.println("Create an xfr for every file in a directory:");
+            System.out.println("    composetree olddir newdir outputdir");
+            System.out.println("      writes outputdir/path.xfr for each newdir/path, composed from the file at the same path");
+            System.out.println("      in olddir, or a file with the same content if it was renamed or moved");
+            System.out.println("      -Dthreads sets how many files are composed at once, -Dmanifest=0 skips outputdir/manifest.txt");
+            System.out.println("Update an xfr for a destination that has grown since:");
+            System.out.println("    append old.xfr destination.dat output.xfr");
+            System.out.println("      keeps the chunks of old.xfr and only composes what was added to the end");
+            System.out.println("      with -Doptimize=1 the output is written in the optimized layout");
             System.out.println("Get information on an xfr file:");
             System.out.println("    info file.xfr - Print info on the xfr");
             System.out.println("    biginfo file.xfr - Print info on the xfr and also chunk data");
@@ -52,17 +68,36 @@ public class TransformFileMain {
             System.out.println("    transform file.xfr output.dat - destination filename specified by you");
             System.out.println("    transform file.xfr - destination filename specified inside the xfr");
             System.out.println("      use \"-\" as destination to output to stdout");
+            System.out.println("      use \"-\" as the xfr to read it from stdin, dependencies are then found from the current directory");
             System.out.println("    aliases: t, tt");
             System.out.println("      if alias \"tt\" is used, output will be to stdout unless specified otherwise");
             System.out.println("      this could be useful if the xfr produces a tar file which can be piped to tar xf");
+            System.out.println("      output files are checkpointed to output.dat.checkpoint while writing, and running the");
+            System.out.println("      same transform again after an interruption resumes from the last checkpoint");
+            System.out.println("Transform a file in place, for xfrs with a single dependency:");
+            System.out.println("    inplace file.xfr - rewrites the dependency into the output");
+            System.out.println("    inplace file.xfr file.dat - rewrites file.dat into the output");
+            System.out.println("      the file is unusable if this is interrupted, only use it when you can't fit both");
             System.out.println("Flip transformation:");
             System.out.println("    flip file.xfr dependencyIndex output.xfr [newSourceFileName.dat]");
+            System.out.println("    flip file.xfr - flips every dependency into dependency.xfr, -Dthreads sets how many are written at once");
+            System.out.println("Verify xfr:");
+            System.out.println("    verify file.xfr - check dependencies and verify the whole output against its hashes");
+            System.out.println("    verify file.xfr dependencyIndex - verify only output that is read from that dependency");
             System.out.println("Optimize xfr:");
             System.out.println("    optimize input.xfr output.xfr");
             System.out.println("Rename source or targets in xfr:");
             System.out.println("    rename input.xfr output.xfr [newSource1.dat] ... [newSourceX.dat]");
             System.out.println("    rename input.xfr output.xfr [newTarget.dat] [newSource1.dat] ... [newSourceX.dat]");
             System.out.println("    renametarget input.xfr output.xfr [newTarget.dat]");
+            System.out.println("Serve the output of every xfr in a directory over HTTP:");
+            System.out.println("    serve directory [port] [threads]");
+            System.out.println("      supports HEAD and GET with Range requests");
+            System.out.println("Benchmark every step on generated data:");
+            System.out.println("    bench directory [size] [seed]");
+            System.out.println("      writes directory/origin.dat and an edited directory/dest.dat of about size bytes (default 16m)");
+            System.out.println("      from seed (default 1), then composes, optimizes, transforms and seeks, printing the results as JSON");
+            System.out.println("      the same size and seed always give the same files, -Dseeks=[1000] sets how many random seeks are timed");
             System.out.println("Change prefix and parent directory scan levels:");
             System.out.println("  This works on multiple files and makes changes in place, not to new files.");
             System.out.println("    prefixandscan prefix parentDirCount file1.xfr file2.xfr ... fileN.xfr");
@@ -73,23 +108,45 @@ public class TransformFileMain {
             System.out.println("-Dlookbehind=[-1] = maximum distance to look behind when composing");
             System.out.println("-Dskipxfrchunks=[0] = set to 1 to skip non redundant data");
             System.out.println("    - useful if you are going to flip then discard the original xfr file.");
+            System.out.println("-Dcheckpoint=[1] = set to 0 to transform without a checkpoint file");
+            System.out.println("-Dverifytail=[0] = when resuming a transform, compare this much output before the checkpoint first");
+            System.out.println("-Dreadorder=[0] = set to 1 to transform by reading each dependency from start to end and writing");
+            System.out.println("    the output out of order, for slow seeking storage. Doesn't use a checkpoint file.");
+            System.out.println("-Dreadbudget=[64m] = largest piece of a dependency read at once with -Dreadorder=1");
+            System.out.println("-Dmaxopenfiles=[256] = most dependencies a transform keeps open at once");
+            System.out.println("-Dsegments=[1] = split the destination into this many segments and compose them in parallel");
+            System.out.println("-Dintegrity=[0] = block size for output hashes written by compose and optimize, eg. 1m");
+            System.out.println("    - 0 doesn't add hashes, optimize keeps existing hashes either way.");
+            System.out.println("-Dselfref=[0] = set to 1 to let compose copy repeated parts of the destination from earlier output");
+            System.out.println("    - the xfr will need a version of TransformFile that supports xfr version 2.");
+            System.out.println("-Dfill=[0] = set to 1 to store runs of the same byte in compose as fill chunks, transform leaves");
+            System.out.println("    runs of zeros as holes in the output. The xfr will need a version of TransformFile that supports xfr version 3.");
+            System.out.println("-Dcandidates=[1] = gather this many matches for each block when composing and pick the one that");
+            System.out.println("    expands the furthest, preferring ones near where the last match left off");
+            System.out.println("-Dseekcost=[4096] = how many bytes of literal data a match somewhere else is considered to cost");
+            System.out.println("-Dadaptive=[0] = set to 1 to search the origin of the last match first when composing, then the");
+            System.out.println("    other origins by how often they've matched recently, instead of in the order they were given");
+            System.out.println("-Dcoldbudget=[0] = with -Dadaptive=1, only search an origin for every this many blocks after this many");
+            System.out.println("    searches in a row without a match, except the origin of the last match. 0 searches every origin.");
+            System.out.println("-Dcoalesce=[0] = when optimizing, copy chunks that need a seek into the xfr if they're smaller than this");
+            System.out.println("    plus the chunk packets that saves, eg. 64k - 0 keeps every chunk as it is.");
+            System.out.println("-Dindexgranularity=[0] = when writing the optimized layout, write a two level address index with an entry for every");
+            System.out.println("    this many bytes of output, or auto to go by the average chunk length. 0 writes the old index of one");
+            System.out.println("    entry per 128k. The xfr will need a version of TransformFile that supports xfr version 4.");
+            System.out.println("-Dhint=previous.xfr = when composing, check where an earlier xfr of the destination read each part from first");
             return;
         }
         switch (command) {
             case "compose":
             case "c": {
-                int matchSize = Integer.parseInt(System.getProperty("matchsize", "512"));
-                long lookahead = Util.parseSize(System.getProperty("lookahead", "0"));
-                long lookbehind = Util.parseSize(System.getProperty("lookbehind", "-1"));
-                boolean likeConcatenation = Integer.parseInt(System.getProperty("likeconcatenation", "0")) != 0;
-                boolean skipNonRedundantData = Integer.parseInt(System.getProperty("skipxfrchunks", "0")) != 0;
+                ComposeOptions options = composeOptions();
                 String outputFile = new String(args[1]);
                 String finalFile = new String(args[2]);
                 List<String> originFiles = new ArrayList<>();
                 for (int i = 3; i < args.length; i++) {
                     originFiles.add(args[i]);
                 }
-                TransformFileComposer.transform(lookahead, lookbehind, matchSize, !skipNonRedundantData, likeConcatenation, outputFile, finalFile, originFiles.toArray(new String[originFiles.size()]));
+                TransformFileComposer.transform(options, outputFile, finalFile, originFiles.toArray(new String[originFiles.size()]));
             }
             break;
             case "info":
@@ -98,6 +155,9 @@ public class TransformFileMain {
                 try (TransformFile file = TransformFile.open(new File(args[1]))) {
                     if (!command.equals("info")) {
                         file.loadChunks();
+                    } else {
+                        // the chunks are only gone through when needed, this reports a truncated or corrupt xfr
+                        file.length();
                     }
                     // starting at 1 is not a mistake
                     // index 0 refers to the xfr file itself
@@ -115,12 +175,22 @@ public class TransformFileMain {
                     System.out.println();
                     long xfrChunks = 0L;
                     long nonXfrChunks = 0L;
+                    long outputChunks = 0L;
+                    long fillChunks = 0L;
                     long totalSizeInXfr = 0L;
                     long totalSizeOutsideXfr = 0L;
+                    long totalSizeFromOutput = 0L;
+                    long totalSizeFilled = 0L;
                     for (DataChunk chunk : file.chunks) {
                         if (chunk.file == 0) {
                             xfrChunks += 1L;
                             totalSizeInXfr += chunk.length;
+                        } else if (chunk.file == DataChunk.OUTPUT) {
+                            outputChunks += 1L;
+                            totalSizeFromOutput += chunk.length;
+                        } else if (chunk.file == DataChunk.FILL) {
+                            fillChunks += 1L;
+                            totalSizeFilled += chunk.length;
                         } else {
                             nonXfrChunks += 1L;
                             totalSizeOutsideXfr += chunk.length;
@@ -132,6 +202,16 @@ public class TransformFileMain {
                     System.out.println("Non-XFR chunks: " + nonXfrChunks);
                     System.out.println("Non-XFR chunk total size: " + Util.sizeToHumanReadable(totalSizeOutsideXfr) + " (" + totalSizeOutsideXfr + ")");
                     System.out.println();
+                    if (outputChunks > 0L) {
+                        System.out.println("Output chunks: " + outputChunks);
+                        System.out.println("Output chunk total size: " + Util.sizeToHumanReadable(totalSizeFromOutput) + " (" + totalSizeFromOutput + ")");
+                        System.out.println();
+                    }
+                    if (fillChunks > 0L) {
+                        System.out.println("Fill chunks: " + fillChunks);
+                        System.out.println("Fill chunk total size: " + Util.sizeToHumanReadable(totalSizeFilled) + " (" + totalSizeFilled + ")");
+                        System.out.println();
+                    }
                     if (command.equals("superinfo")) {
                         for (DataChunk chunk : file.chunks) {
                             System.out.println(chunk.file + " 0x" + Long.toString(chunk.offset + (chunk.file == 0 ? file.dataFileOffset : 0L), 16) + " 0x" + Long.toString(chunk.length, 16) + " -> 0x" + Long.toString(chunk.transformedOffset, 16));
@@ -144,44 +224,89 @@ public class TransformFileMain {
             case "tt":
             case "transform": {
                 File xfrFile = new File(args[1]);
+                boolean checkpoint = Integer.parseInt(System.getProperty("checkpoint", "1")) != 0;
+                long verifyTail = Util.parseSize(System.getProperty("verifytail", "0"));
+                boolean readOrder = Integer.parseInt(System.getProperty("readorder", "0")) != 0;
+                long readBudget = Util.parseSize(System.getProperty("readbudget", "64m"));
                 if (command.equals("tt") && args.length == 2) {
                     args = Arrays.copyOf(args, 3);
                     args[2] = "-";
                 }
                 if (args.length == 2) {
-                    try (TransformFile in = TransformFile.open(xfrFile)) {
+                    try (FileHandlePool pool = handlePool();
+                         TransformFile in = openXfr(xfrFile, pool)) {
                         String destinationFile = in.getFilename();
                         if (destinationFile == null) {
                             System.out.println("XFR does not specify a destination filename, you need to specify one.");
                             return;
                         }
-                        try (FileOutputStream out = new FileOutputStream(new File(xfrFile.getParentFile(), destinationFile))) {
-                            copy(in, out);
+                        File outputFile = new File(xfrFile.getParentFile(), destinationFile);
+                        if (readOrder) {
+                            TransformFileSweep.transform(in, outputFile, readBudget);
+                        } else if (checkpoint) {
+                            TransformFileResumable.transform(in, outputFile, verifyTail);
+                        } else {
+                            try (FileOutputStream out = new FileOutputStream(outputFile)) {
+                                copy(in, out);
+                            }
                         }
                     }
                 } else if (args.length == 3) {
                     if (args[2].equals("-")) {
-                        try (TransformFile in = TransformFile.open(xfrFile)) {
+                        try (FileHandlePool pool = handlePool();
+                             TransformFile in = openXfr(xfrFile, pool)) {
                             copy(in, System.out);
                         }
+                    } else if (readOrder) {
+                        try (FileHandlePool pool = handlePool();
+                             TransformFile in = openXfr(xfrFile, pool)) {
+                            TransformFileSweep.transform(in, new File(args[2]), readBudget);
+                        }
+                    } else if (checkpoint) {
+                        try (FileHandlePool pool = handlePool();
+                             TransformFile in = openXfr(xfrFile, pool)) {
+                            TransformFileResumable.transform(in, new File(args[2]), verifyTail);
+                        }
                     } else {
                         try (FileOutputStream out = new FileOutputStream(args[2]);
-                             TransformFile in = TransformFile.open(xfrFile)) {
+                             FileHandlePool pool = handlePool();
+                             TransformFile in = openXfr(xfrFile, pool)) {
                             copy(in, out);
                         }
                     }
                 }
             }
             break;
+            case "inplace": {
+                try (TransformFile tf = TransformFile.open(new File(args[1]))) {
+                    if (tf.files.length != 2) {
+                        System.out.println("In place transforms need an xfr with a single dependency, this one has " + (tf.files.length - 1));
+                        return;
+                    }
+                    File origin = args.length > 2 ? new File(args[2]) : tf.getDependencyFile(1);
+                    List<String> problems = tf.checkDependencies();
+                    if (args.length == 2 && !problems.isEmpty()) {
+                        for (String problem : problems) {
+                            System.out.println(problem);
+                        }
+                        return;
+                    }
+                    TransformFileInPlace.transform(tf, origin);
+                }
+            }
+            break;
             case "flip":
             case "f": {
                 try (TransformFile tf = TransformFile.open(new File(args[1]))) {
                     if (args.length == 2) {
+                        File[] outputs = new File[tf.files.length];
+                        File[] destinations = new File[tf.files.length];
                         for (int i = 1; i < tf.files.length; i++) {
-                            try (FileOutputStream out = new FileOutputStream(tf.files[i] + ".xfr")) {
-                                TransformFileFlipper.flip(tf, i, out, tf.getFilename(), new File(tf.files[i]));
-                            }
+                            outputs[i] = new File(tf.files[i] + ".xfr");
+                            destinations[i] = new File(tf.files[i]);
                         }
+                        int threads = Integer.parseInt(System.getProperty("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+                        TransformFileFlipper.flipAll(tf, outputs, tf.getFilename(), destinations, threads);
                     } else {
                         try (FileOutputStream out = new FileOutputStream(args[3])) {
                             int fileIndex = Integer.parseInt(args[2]);
@@ -192,12 +317,88 @@ public class TransformFileMain {
                 }
             }
             break;
+            case "verify":
+            case "v": {
+                int threads = Runtime.getRuntime().availableProcessors();
+                try (TransformFile tf = TransformFile.open(new File(args[1]))) {
+                    List<String> problems = tf.checkDependencies();
+                    for (String problem : problems) {
+                        System.out.println(problem);
+                    }
+                    if (!problems.isEmpty()) {
+                        System.out.println("Dependency check failed");
+                        System.exit(1);
+                        return;
+                    }
+                    if (tf.getIntegrity() == null) {
+                        System.out.println("Dependencies OK, this xfr has no hashes to verify the output with");
+                        return;
+                    }
+                    List<Long> failed = args.length > 2 ? tf.verifyDependency(Integer.parseInt(args[2]), threads) : tf.verify(threads);
+                    long blockSize = tf.getIntegrity().getBlockSize();
+                    for (long block : failed) {
+                        System.out.println("Mismatch in block " + block + " (" + (block * blockSize) + " - " + Math.min(tf.length(), (block + 1L) * blockSize) + ")");
+                    }
+                    if (!failed.isEmpty()) {
+                        System.out.println("Verification failed");
+                        System.exit(1);
+                        return;
+                    }
+                    System.out.println("OK");
+                }
+            }
+            break;
+            case "plan": {
+                int samples = Integer.parseInt(System.getProperty("samples", "4096"));
+                File[] origins = new File[args.length - 2];
+                for (int i = 2; i < args.length; i++) {
+                    origins[i - 2] = new File(args[i]);
+                }
+                TransformFilePlanner.Estimate estimate = TransformFilePlanner.estimate(composeOptions(), new File(args[1]), origins, samples, 0L);
+                System.out.println("Destination: " + Util.sizeToHumanReadable(estimate.destinationSize) + " (" + estimate.destinationSize + "), " + estimate.samples + " samples of " + estimate.matchSize + " bytes");
+                if (estimate.stride > 1L) {
+                    System.out.println("Only about 1 in " + estimate.stride + " origin blocks was indexed, matches shorter than " + estimate.stride + " blocks may be missed");
+                }
+                System.out.println("Redundant: " + percent(estimate.redundant) + " (" + percent(estimate.redundantLow) + " - " + percent(estimate.redundantHigh) + ")");
+                System.out.println("Chunks: " + estimate.chunks + " (" + estimate.chunksLow + " - " + estimate.chunksHigh + ")");
+                System.out.println("Xfr size: " + Util.sizeToHumanReadable(estimate.size) + " (" + Util.sizeToHumanReadable(estimate.sizeLow) + " - " + Util.sizeToHumanReadable(estimate.sizeHigh) + ")");
+                for (int i = 0; i < origins.length; i++) {
+                    System.out.println("Found in " + origins[i] + ": " + percent(estimate.originShare[i]));
+                }
+            }
+            break;
+            case "bench": {
+                File directory = new File(args[1]);
+                long size = Util.parseSize(args.length > 2 ? args[2] : "16m");
+                long seed = args.length > 3 ? Long.parseLong(args[3]) : 1L;
+                int seeks = Integer.parseInt(System.getProperty("seeks", "1000"));
+                long seekCost = Util.parseSize(System.getProperty("coalesce", "0"));
+                TransformFileBench.generate(directory, size, seed);
+                System.out.println(TransformFileBench.toJson(TransformFileBench.run(composeOptions(), directory, seekCost, seeks, seed)));
+            }
+            break;
+            case "composetree": {
+                int threads = Integer.parseInt(System.getProperty("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+                boolean manifest = Integer.parseInt(System.getProperty("manifest", "1")) != 0;
+                TransformFileTreeComposer.compose(composeOptions(), new File(args[1]), new File(args[2]), new File(args[3]), threads, manifest);
+            }
+            break;
+            case "append": {
+                try (TransformFile tf = TransformFile.open(new File(args[1]))) {
+                    TransformFileComposer.append(composeOptions(), tf, args[3], args[2]);
+                }
+            }
+            break;
             case "optimize":
             case "compact": {
+                long integrityBlockSize = Util.parseSize(System.getProperty("integrity", "0"));
+                long seekCost = Util.parseSize(System.getProperty("coalesce", "0"));
+                String granularity = System.getProperty("indexgranularity", "0");
+                long indexGranularity = granularity.equals("auto") ? -1L : Util.parseSize(granularity);
                 if (args.length == 3 && !(new File(args[2]).exists())) {
                     try (TransformFile tf = TransformFile.open(new File(args[1]))) {
                         try (FileOutputStream out = new FileOutputStream(args[2])) {
-                            TransformFileOptimizer.optimize(tf, out);
+                            printReport(TransformFileOptimizer.optimize(tf, out, integrityBlockSize, seekCost, indexGranularity));
                         }
                     }
                 } else {
@@ -207,7 +408,7 @@ public class TransformFileMain {
                         try {
                             try (TransformFile tf = TransformFile.open(file);
                                  FileOutputStream out = new FileOutputStream(tmpFile)) {
-                                TransformFileOptimizer.optimize(tf, out);
+                                printReport(TransformFileOptimizer.optimize(tf, out, integrityBlockSize, seekCost, indexGranularity));
                             }
                             tmpFile.renameTo(file);
                         } finally {
@@ -264,6 +465,13 @@ public class TransformFileMain {
                 }
             }
             break;
+            case "serve": {
+                File directory = new File(args[1]);
+                int port = args.length > 2 ? Integer.parseInt(args[2]) : 8080;
+                int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors() * 2;
+                TransformFileServer.serve(directory, port, threads);
+            }
+            break;
             case "disassemble": {
                 File file = new File(args[1]);
                 try (FileInputStream fis = new FileInputStream(file)) {
@@ -286,4 +494,48 @@ public class TransformFileMain {
             break;
         }
     }
+
+    private static void printReport(TransformFileOptimizer.Report report) {
+        if (report.inlinedChunks == 0) return;
+        System.out.println("Inlined " + report.inlinedChunks + " chunks, " + report.inlinedBytes + " bytes larger: "
+            + report.chunksBefore + " -> " + report.chunksAfter + " chunks, "
+            + report.seeksBefore + " -> " + report.seeksAfter + " seeks");
+    }
+
+    private static String percent(double fraction) {
+        return (Math.round(fraction * 1000.0) / 10.0) + "%";
+    }
+
+    private static ComposeOptions composeOptions() {
+        ComposeOptions options = new ComposeOptions();
+        options.setMatchSize(Integer.parseInt(System.getProperty("matchsize", "512")));
+        options.setLookahead(Util.parseSize(System.getProperty("lookahead", "0")));
+        options.setLookbehind(Util.parseSize(System.getProperty("lookbehind", "-1")));
+        options.setLikeConcatenation(Integer.parseInt(System.getProperty("likeconcatenation", "0")) != 0);
+        options.setCopyNonRedundantData(Integer.parseInt(System.getProperty("skipxfrchunks", "0")) == 0);
+        options.setSegments(Integer.parseInt(System.getProperty("segments", "1")));
+        options.setIntegrityBlockSize(Util.parseSize(System.getProperty("integrity", "0")));
+        options.setSelfReferences(Integer.parseInt(System.getProperty("selfref", "0")) != 0);
+        options.setFillRuns(Integer.parseInt(System.getProperty("fill", "0")) != 0);
+        options.setCandidates(Integer.parseInt(System.getProperty("candidates", "1")));
+        options.setSeekCost(Util.parseSize(System.getProperty("seekcost", "4096")));
+        options.setAdaptiveOrder(Integer.parseInt(System.getProperty("adaptive", "0")) != 0);
+        options.setColdBudget(Integer.parseInt(System.getProperty("coldbudget", "0")));
+        options.setOptimized(Integer.parseInt(System.getProperty("optimize", "0")) != 0);
+        String granularity = System.getProperty("indexgranularity", "0");
+        options.setIndexGranularity(granularity.equals("auto") ? -1L : Util.parseSize(granularity));
+        String hint = System.getProperty("hint");
+        if (hint != null) options.setHint(new File(hint));
+        return options;
+    }
+
+    private static FileHandlePool handlePool() {
+        return new FileHandlePool(Integer.parseInt(System.getProperty("maxopenfiles", Integer.toString(FileHandlePool.DEFAULT_MAX_OPEN))));
+    }
+
+    private static TransformFile openXfr(File xfrFile, FileHandlePool pool) throws IOException, TransformFileException {
+        if (!xfrFile.getPath().equals("-")) return TransformFile.open(xfrFile, pool);
+        // held off heap so a large xfr from a pipe doesn't need a heap several times its size
+        return TransformFile.open(RandomAccessDataOffHeap.create(System.in), pool);
+    }
 }
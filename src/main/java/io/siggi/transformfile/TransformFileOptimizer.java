@@ -10,21 +10,94 @@ import io.siggi.transformfile.packet.types.PacketCloseFile;
 import io.siggi.transformfile.packet.types.PacketEnd;
 import io.siggi.transformfile.packet.types.PacketFileList;
 import io.siggi.transformfile.packet.types.PacketFileName;
+import io.siggi.transformfile.packet.types.PacketIntegrity;
 
 import io.siggi.transformfile.packet.types.PacketOffsets;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 
 import static io.siggi.transformfile.io.Util.*;
 
 public class TransformFileOptimizer {
+    private static final int defaultIndexStride = 4096;
+    private static final long maxIndexGranularity = 64L * 1024L * 1024L;
+    public static class Report {
+        public final int chunksBefore;
+        public final int chunksAfter;
+        // reads from an origin somewhere other than where the last read from it ended
+        public final int seeksBefore;
+        public final int seeksAfter;
+        public final int inlinedChunks;
+        // how much bigger the non redundant data got for it
+        public final long inlinedBytes;
+
+        private Report(int chunksBefore, int chunksAfter, int seeksBefore, int seeksAfter, int inlinedChunks, long inlinedBytes) {
+            this.chunksBefore = chunksBefore;
+            this.chunksAfter = chunksAfter;
+            this.seeksBefore = seeksBefore;
+            this.seeksAfter = seeksAfter;
+            this.inlinedChunks = inlinedChunks;
+            this.inlinedBytes = inlinedBytes;
+        }
+    }
+
     public static void optimize(TransformFile tf, FileOutputStream out) throws IOException {
+        optimize(tf, out, 0L);
+    }
+
+    // integrityBlockSize of 0 keeps the integrity packet of the input, if it has one
+    public static void optimize(TransformFile tf, FileOutputStream out, long integrityBlockSize) throws IOException {
+        optimize(tf, out, integrityBlockSize, 0L);
+    }
+
+    // with a seekCost above 0, small chunks read from an origin are copied into the non redundant data when the
+    // bytes that adds cost less than the seek and the chunk packets it saves, seekCost being what a seek is worth in
+    // bytes of xfr, which needs the dependencies to be there
+    public static Report optimize(TransformFile tf, FileOutputStream out, long integrityBlockSize, long seekCost) throws IOException {
+        return optimize(tf, out, integrityBlockSize, seekCost, 0L);
+    }
+
+    // indexGranularity of 0 writes the version 0 address index of one entry per 131072 bytes of output, anything else
+    // writes a version 4 two level index with an entry per indexGranularity bytes, or a granularity picked from the
+    // average chunk length if it's -1
+    public static Report optimize(TransformFile tf, FileOutputStream out, long integrityBlockSize, long seekCost, long indexGranularity) throws IOException {
         tf.loadChunks();
 
+        PacketIntegrity integrity = tf.getIntegrity();
+        if (integrityBlockSize > 0L && (integrity == null || integrity.getBlockSize() != integrityBlockSize)) {
+            try (TransformFile in = tf.duplicate()) {
+                integrity = MerkleTree.hash(new BufferedInputStream(in, 65536), in.length(), integrityBlockSize);
+            }
+        }
+
+        boolean[] inline = seekCost > 0L ? coalesce(tf.chunks, tf.files.length, seekCost) : new boolean[tf.chunks.length];
+        int inlinedChunks = 0;
+        long inlinedBytes = 0L;
+        for (int i = 0; i < inline.length; i++) {
+            if (!inline[i]) continue;
+            inlinedChunks += 1;
+            inlinedBytes += tf.chunks[i].length;
+        }
+
         boolean[] use = new boolean[tf.files.length];
-        for (DataChunk chunk : tf.chunks) {
+        boolean outputChunks = false;
+        boolean fillChunks = false;
+        for (int i = 0; i < tf.chunks.length; i++) {
+            DataChunk chunk = tf.chunks[i];
+            if (inline[i]) continue;
+            if (chunk.file == DataChunk.OUTPUT) {
+                outputChunks = true;
+                continue;
+            }
+            if (chunk.file == DataChunk.FILL) {
+                fillChunks = true;
+                continue;
+            }
             use[chunk.file] = true;
         }
         List<String> newFiles = new ArrayList<>(tf.files.length);
@@ -41,7 +114,7 @@ public class TransformFileOptimizer {
             mapping[i] = idx;
         }
 
-        PacketIO packetIO = PacketIO.getDefault();
+        PacketIO packetIO = packetIO(indexGranularity, fillChunks, outputChunks, integrity != null);
 
         packetIO.writeFileHeader(out);
 
@@ -51,43 +124,112 @@ public class TransformFileOptimizer {
 
         packetIO.write(out, new PacketFileList(newFiles));
 
-        List<DataChunk> chunks = new LinkedList<>();
+        if (integrity != null) {
+            packetIO.write(out, integrity);
+        }
 
-        for (DataChunk chunk : tf.chunks) {
-            DataChunk transformedChunk = new DataChunk(chunk.transformedOffset, mapping[chunk.file], chunk.offset, chunk.length);
-            if (!chunks.isEmpty()) {
-                int lastItem = chunks.size() - 1;
-                DataChunk combined = combine(chunks.get(lastItem), transformedChunk);
-                if (combined != null) {
-                    chunks.set(lastItem, combined);
-                    continue;
+        List<DataChunk> chunks = new ArrayList<>();
+
+        // once anything is inlined the non redundant data is written again in output order
+        long literalOffset = 0L;
+        for (int i = 0; i < tf.chunks.length; i++) {
+            DataChunk chunk = tf.chunks[i];
+            DataChunk transformedChunk;
+            if (inlinedChunks > 0 && (inline[i] || chunk.file == 0)) {
+                transformedChunk = new DataChunk(chunk.transformedOffset, 0, literalOffset, chunk.length);
+                literalOffset += chunk.length;
+            } else {
+                transformedChunk = new DataChunk(chunk.transformedOffset, chunk.file < 0 ? chunk.file : mapping[chunk.file], chunk.offset, chunk.length);
+            }
+            addCombined(chunks, transformedChunk);
+        }
+
+        NonRedundantData data;
+        if (inlinedChunks > 0) {
+            data = (o, size) -> {
+                try (TransformFile in = tf.duplicate()) {
+                    for (DataChunk chunk : chunks) {
+                        if (chunk.file != 0) continue;
+                        in.seek(chunk.transformedOffset);
+                        copy(new LimitInputStream(in, chunk.length, false), o);
+                    }
                 }
+            };
+        } else {
+            data = (o, size) -> {
+                RandomAccessData rad = tf.rads[0];
+                rad.seek(tf.dataFileOffset);
+                copy(new LimitInputStream(new RandomAccessInputStream(rad, false), size, false), o);
+            };
+        }
+        writeBody(packetIO, out, chunks, newFiles.size() + 1, indexGranularity, data);
+
+        return new Report(tf.chunks.length, chunks.size(), seeks(Arrays.asList(tf.chunks), tf.files.length), seeks(chunks, newFiles.size() + 1), inlinedChunks, inlinedBytes);
+    }
+
+    // the lowest version that has everything the optimized layout uses
+    static PacketIO packetIO(long indexGranularity, boolean fillChunks, boolean outputChunks, boolean integrity) {
+        if (indexGranularity != 0L) return PacketIO.getAtLeast(PacketIO.TWO_LEVEL_INDEX_VERSION);
+        if (fillChunks) return PacketIO.getAtLeast(PacketIO.FILL_CHUNK_VERSION);
+        if (outputChunks) return PacketIO.getAtLeast(PacketIO.OUTPUT_CHUNK_VERSION);
+        if (integrity) return PacketIO.getAtLeast(PacketIO.INTEGRITY_VERSION);
+        return PacketIO.getDefault();
+    }
+
+    interface NonRedundantData {
+        void writeTo(OutputStream out, long size) throws IOException;
+    }
+
+    // adds chunk to the end of chunks, or extends the last one with it if it continues where that one ends
+    static void addCombined(List<DataChunk> chunks, DataChunk chunk) {
+        if (!chunks.isEmpty()) {
+            int lastItem = chunks.size() - 1;
+            DataChunk combined = combine(chunks.get(lastItem), chunk);
+            if (combined != null) {
+                chunks.set(lastItem, combined);
+                return;
             }
-            chunks.add(transformedChunk);
         }
+        chunks.add(chunk);
+    }
 
+    // writes everything after the header of an optimized xfr, the offsets packet, the chunks with close file packets
+    // after the last chunk of each file, the non redundant data and the address index
+    // chunks must be in output order with the non redundant data they read starting at 0, fileCount includes file 0
+    static void writeBody(PacketIO packetIO, OutputStream out, List<DataChunk> chunks, int fileCount, long indexGranularity, NonRedundantData data) throws IOException {
         long resultFileSize = 0L;
         long nonRedundantSize = 0L;
-        long[] highestPoint = new long[newFiles.size()];
+        long[] highestPoint = new long[fileCount - 1];
 
         for (DataChunk chunk : chunks) {
             resultFileSize = chunk.transformedOffset + chunk.length;
             int fileIndex = chunk.file;
-            if (fileIndex < 1) {
+            if (fileIndex == 0) {
                 nonRedundantSize = Math.max(nonRedundantSize, chunk.offset + chunk.length);
                 continue;
             }
+            if (fileIndex < 1) continue;
             highestPoint[fileIndex - 1] = chunk.transformedOffset + chunk.length;
         }
 
-        List<Long> offsets = new LinkedList<>();
+        if (indexGranularity < 0L) {
+            long average = resultFileSize / Math.max(1, chunks.size());
+            indexGranularity = Long.highestOneBit(Math.max(PacketOffsets.DEFAULT_INDEX_GRANULARITY, Math.min(average, maxIndexGranularity)));
+        } else if (indexGranularity == 0L) {
+            indexGranularity = PacketOffsets.DEFAULT_INDEX_GRANULARITY;
+        }
+        long[] offsets = new long[16];
+        int offsetCount = 0;
 
         ByteArrayOutputStream chunksBuffer = new ByteArrayOutputStream();
         for (DataChunk chunk : chunks) {
             long offsetOfLastByte = chunk.transformedOffset + chunk.length - 1L;
             long offsetFromStartOfChunks = chunksBuffer.size();
-            int indexAddress = (int) (offsetOfLastByte / 131072L);
-            while (offsets.size() <= indexAddress) offsets.add(offsetFromStartOfChunks);
+            int indexAddress = (int) (offsetOfLastByte / indexGranularity);
+            while (offsetCount <= indexAddress) {
+                if (offsetCount == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                offsets[offsetCount++] = offsetFromStartOfChunks;
+            }
             packetIO.write(chunksBuffer, chunk);
             int fileIndex = chunk.file;
             if (fileIndex < 1) continue;
@@ -99,23 +241,94 @@ public class TransformFileOptimizer {
         packetIO.write(chunksBuffer, PacketEnd.instance);
 
         int chunksBufferSize = chunksBuffer.size();
-        packetIO.write(out, new PacketOffsets(chunksBufferSize, chunksBufferSize + nonRedundantSize, resultFileSize));
+        PacketOffsets offsetsPacket = new PacketOffsets(chunksBufferSize, chunksBufferSize + nonRedundantSize, resultFileSize);
+        int stride = 0;
+        if (packetIO.getProtocolVersion() >= PacketIO.TWO_LEVEL_INDEX_VERSION) {
+            stride = indexStride(offsets, offsetCount);
+            offsetsPacket.setTwoLevelIndex(indexGranularity, stride, (offsetCount + stride - 1) / stride);
+        }
+        packetIO.write(out, offsetsPacket);
         chunksBuffer.writeTo(out);
 
-        RandomAccessData rad = tf.rads[0];
-        rad.seek(tf.dataFileOffset);
-        LimitInputStream in = new LimitInputStream(new RandomAccessInputStream(rad, false), nonRedundantSize, false);
-        copy(in, out);
+        data.writeTo(out, nonRedundantSize);
 
-        for (long l : offsets) {
-            Util.writeLong(out, l);
+        BufferedOutputStream index = new BufferedOutputStream(out, 65536);
+        if (stride == 0) {
+            for (int i = 0; i < offsetCount; i++) {
+                Util.writeLong(index, offsets[i]);
+            }
+        } else {
+            for (int i = 0; i < offsetCount; i += stride) {
+                Util.writeLong(index, offsets[i]);
+            }
+            byte[] entry = new byte[4];
+            for (int i = 0; i < offsetCount; i++) {
+                long delta = offsets[i] - offsets[i - i % stride];
+                for (int j = 0; j < 4; j++) {
+                    entry[j] = (byte) (delta >>> (24 - j * 8));
+                }
+                index.write(entry);
+            }
+        }
+        index.flush();
+    }
+
+    // the most entries per group of a two level index that keeps every entry within 4 bytes of the start of its group
+    private static int indexStride(long[] offsets, int offsetCount) {
+        int stride = defaultIndexStride;
+        while (stride > 1) {
+            boolean fits = true;
+            for (int i = 0; i < offsetCount && fits; i++) {
+                fits = offsets[i] - offsets[i - i % stride] <= 0xffffffffL;
+            }
+            if (fits) break;
+            stride /= 2;
+        }
+        return stride;
+    }
+
+    // a chunk is inlined when it needs a seek and its length is less than the seek plus the packets saved by merging
+    // it with the non redundant chunks around it
+    private static boolean[] coalesce(DataChunk[] chunks, int fileCount, long seekCost) {
+        boolean[] inline = new boolean[chunks.length];
+        long[] lastEnd = new long[fileCount];
+        for (int i = 0; i < chunks.length; i++) {
+            DataChunk chunk = chunks[i];
+            if (chunk.file < 1) continue;
+            if (chunk.offset != lastEnd[chunk.file]) {
+                int merges = 0;
+                if (i > 0 && (chunks[i - 1].file == 0 || inline[i - 1])) merges += 1;
+                if (i + 1 < chunks.length && chunks[i + 1].file == 0) merges += 1;
+                if (chunk.length < seekCost + merges * chunkSize(chunk)) {
+                    inline[i] = true;
+                    continue;
+                }
+            }
+            lastEnd[chunk.file] = chunk.offset + chunk.length;
+        }
+        return inline;
+    }
+
+    private static long chunkSize(DataChunk chunk) {
+        return 2L + varIntSize(chunk.transformedOffset) + varIntSize(chunk.offset) + varIntSize(chunk.length);
+    }
+
+    private static int seeks(List<DataChunk> chunks, int fileCount) {
+        long[] lastEnd = new long[fileCount];
+        int seeks = 0;
+        for (DataChunk chunk : chunks) {
+            if (chunk.file < 1) continue;
+            if (chunk.offset != lastEnd[chunk.file]) seeks += 1;
+            lastEnd[chunk.file] = chunk.offset + chunk.length;
         }
+        return seeks;
     }
 
     private static DataChunk combine(DataChunk chunk1, DataChunk chunk2) {
         if (chunk1.file != chunk2.file) return null;
-        if (chunk1.offset + chunk1.length != chunk2.offset) return null;
+        if (chunk1.file == DataChunk.FILL ? chunk1.offset != chunk2.offset : chunk1.offset + chunk1.length != chunk2.offset) return null;
         if (chunk1.transformedOffset + chunk1.length != chunk2.transformedOffset) return null;
+        if (chunk1.file == DataChunk.OUTPUT && chunk2.offset + chunk2.length > chunk1.transformedOffset) return null;
         return new DataChunk(chunk1.transformedOffset, chunk1.file, chunk1.offset, chunk1.length + chunk2.length);
     }
 }
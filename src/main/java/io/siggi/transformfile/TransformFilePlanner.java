@@ -0,0 +1,249 @@
+package io.siggi.transformfile;
+
+import io.siggi.transformfile.io.ByteArrays;
+import io.siggi.transformfile.io.Util;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// estimates how big an xfr would be without composing it
+// every matchSize aligned block of the origins goes into a hash table, then random destination blocks are looked up
+// in it, so the origins are read once and the destination only where it's sampled
+// when there are more blocks than fit, only blocks whose hash is a multiple of stride are indexed, and each sample
+// looks for an indexed block within stride blocks either side, then checks against the origin that the match
+// reaches back to the sample, so long matches are counted in full
+public class TransformFilePlanner {
+    private static final int tableBits = 22;
+    private static final long hashMultiplier = 0x100000001B3L;
+    private static final double z = 1.96;
+
+    public static class Estimate {
+        public final long destinationSize;
+        public final int samples;
+        public final int matchSize;
+        // only about one in stride origin blocks was indexed, because there were more than fit in the table, so a
+        // match of n blocks is found with a chance of 1 - (1 - 1 / stride) ^ n
+        public final long stride;
+        public final double redundant;
+        public final double redundantLow;
+        public final double redundantHigh;
+        public final long chunks;
+        public final long chunksLow;
+        public final long chunksHigh;
+        public final long size;
+        public final long sizeLow;
+        public final long sizeHigh;
+        // fraction of the samples found in each origin
+        public final double[] originShare;
+
+        private Estimate(long destinationSize, int samples, int matchSize, long stride, int redundantSamples, int boundarySamples, int[] originSamples, long headerSize, long originSize) {
+            this.destinationSize = destinationSize;
+            this.samples = samples;
+            this.matchSize = matchSize;
+            this.stride = stride;
+            double[] r = interval(redundantSamples, samples);
+            this.redundant = r[0];
+            this.redundantLow = r[1];
+            this.redundantHigh = r[2];
+            double[] b = interval(boundarySamples, samples);
+            long blocks = Math.max(1L, destinationSize / matchSize);
+            this.chunks = 1L + (long) (b[0] * blocks);
+            this.chunksLow = 1L + (long) (b[1] * blocks);
+            this.chunksHigh = 1L + (long) (b[2] * blocks);
+            this.size = size(headerSize, originSize, chunks, redundant);
+            this.sizeLow = size(headerSize, originSize, chunksLow, redundantHigh);
+            this.sizeHigh = size(headerSize, originSize, chunksHigh, redundantLow);
+            this.originShare = new double[originSamples.length];
+            for (int i = 0; i < originSamples.length; i++) {
+                originShare[i] = samples == 0 ? 0.0 : (double) originSamples[i] / samples;
+            }
+        }
+
+        private long size(long headerSize, long originSize, long chunks, double redundant) {
+            long averageLength = Math.max(1L, destinationSize / chunks);
+            long chunkSize = 1L + Util.varIntSize(destinationSize / 2L) + 1L + Util.varIntSize(Math.max(originSize, destinationSize) / 2L) + Util.varIntSize(averageLength);
+            return headerSize + chunks * chunkSize + (long) ((1.0 - redundant) * destinationSize);
+        }
+    }
+
+    public static Estimate estimate(ComposeOptions options, File destination, File[] origins, int samples, long seed) throws IOException {
+        int matchSize = options.getMatchSize();
+        long[] keys = new long[1 << tableBits];
+        long[] values = new long[1 << tableBits];
+        long totalBlocks = 0L;
+        long originSize = 0L;
+        long headerSize = 32L;
+        for (File origin : origins) {
+            totalBlocks += origin.length() / matchSize;
+            originSize = Math.max(originSize, origin.length());
+            headerSize += origin.getPath().length() + 2L;
+        }
+        // keep the table at most half full
+        long stride = Math.max(1L, (totalBlocks + (keys.length / 2) - 1L) / (keys.length / 2));
+        long power = 1L;
+        for (int i = 1; i < matchSize; i++) power *= hashMultiplier;
+
+        byte[] buffer = new byte[Math.max(1048576, matchSize) / matchSize * matchSize];
+        for (int f = 0; f < origins.length; f++) {
+            try (RandomAccessFile raf = new RandomAccessFile(origins[f], "r")) {
+                long position = 0L;
+                int c;
+                while ((c = read(raf, buffer)) > 0) {
+                    for (int i = 0; i + matchSize <= c; i += matchSize) {
+                        long hash = hash(buffer, i, matchSize);
+                        if (!indexed(hash, stride)) continue;
+                        put(keys, values, hash, ((long) f << 48) | (position + i));
+                    }
+                    position += c;
+                    if (c < buffer.length) break;
+                }
+            }
+        }
+
+        int redundantSamples = 0;
+        int boundarySamples = 0;
+        int[] originSamples = new int[origins.length];
+        RandomAccessFile[] originRafs = new RandomAccessFile[origins.length];
+        try (RandomAccessFile raf = new RandomAccessFile(destination, "r")) {
+            for (int f = 0; f < origins.length; f++) {
+                originRafs[f] = new RandomAccessFile(origins[f], "r");
+            }
+            long length = raf.length();
+            // the sampled pair of blocks, with stride blocks either side to find an indexed block in
+            long reach = stride * matchSize;
+            byte[] window = new byte[(int) (reach * 2L + matchSize * 2L)];
+            byte[] compare = new byte[window.length];
+            Random random = new Random(seed);
+            long last = length - matchSize * 2L;
+            if (last < 0L) samples = 0;
+            for (int s = 0; s < samples; s++) {
+                long position = (long) (random.nextDouble() * (last + 1L));
+                long windowStart = Math.max(0L, position - reach);
+                int windowLength = (int) (Math.min(length, position + matchSize * 2L + reach) - windowStart);
+                raf.seek(windowStart);
+                raf.readFully(window, 0, windowLength);
+                int sample = (int) (position - windowStart);
+                List<long[]> hits = lookup(keys, values, window, windowLength, matchSize, stride, power);
+                long[] first = match(hits, window, sample, matchSize, originRafs, compare);
+                long[] second = match(hits, window, sample + matchSize, matchSize, originRafs, compare);
+                if (first != null) {
+                    redundantSamples += 1;
+                    originSamples[(int) (first[0] >>> 48)] += 1;
+                }
+                // a chunk starts at the second block if it's found somewhere the first one doesn't continue into
+                boolean boundary;
+                if (first == null || second == null) {
+                    boundary = (first == null) != (second == null);
+                } else {
+                    boundary = first[0] >>> 48 != second[0] >>> 48 || first[1] != second[1];
+                }
+                if (boundary) boundarySamples += 1;
+            }
+            return new Estimate(length, samples, matchSize, stride, redundantSamples, boundarySamples, originSamples, headerSize, originSize);
+        } finally {
+            for (RandomAccessFile originRaf : originRafs) {
+                if (originRaf != null) originRaf.close();
+            }
+        }
+    }
+
+    // {window offset, origin << 48 | offset} of every indexed block found starting anywhere in the window
+    private static List<long[]> lookup(long[] keys, long[] values, byte[] window, int windowLength, int matchSize, long stride, long power) {
+        List<long[]> hits = new ArrayList<>();
+        if (windowLength < matchSize) return hits;
+        long hash = hash(window, 0, matchSize);
+        for (int i = 0; ; i++) {
+            if (indexed(hash, stride)) {
+                long value = get(keys, values, hash);
+                if (value != -1L) hits.add(new long[]{i, value});
+            }
+            if (i + matchSize >= windowLength) break;
+            hash = (hash - (window[i] & 0xff) * power) * hashMultiplier + (window[i + matchSize] & 0xff);
+        }
+        return hits;
+    }
+
+    // {origin << 48 | offset, origin offset minus window offset} of the hit nearest the block at start whose match,
+    // checked against the origin, covers that block, or null
+    private static long[] match(List<long[]> hits, byte[] window, int start, int matchSize, RandomAccessFile[] origins, byte[] compare) throws IOException {
+        long[] best = null;
+        long bestDistance = Long.MAX_VALUE;
+        for (long[] hit : hits) {
+            long distance = Math.abs(hit[0] - start);
+            if (distance >= bestDistance) continue;
+            int from = (int) Math.min(start, hit[0]);
+            int to = (int) Math.max(start, hit[0]) + matchSize;
+            int file = (int) (hit[1] >>> 48);
+            long originFrom = (hit[1] & 0xffffffffffffL) - (hit[0] - from);
+            if (originFrom < 0L || originFrom + (to - from) > origins[file].length()) continue;
+            origins[file].seek(originFrom);
+            origins[file].readFully(compare, 0, to - from);
+            if (ByteArrays.mismatch(window, from, compare, 0, to - from) != -1) continue;
+            best = new long[]{((long) file << 48) | (originFrom + (start - from)), originFrom - from};
+            bestDistance = distance;
+        }
+        return best;
+    }
+
+    // the same blocks are picked on both sides, by content
+    private static boolean indexed(long hash, long stride) {
+        if (stride == 1L) return true;
+        return Long.remainderUnsigned(hash * 0xC2B2AE3D27D4EB4FL >>> 17, stride) == 0L;
+    }
+
+    private static long hash(byte[] data, int offset, int length) {
+        long hash = 0L;
+        for (int i = 0; i < length; i++) {
+            hash = hash * hashMultiplier + (data[offset + i] & 0xff);
+        }
+        return hash;
+    }
+
+    private static int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - tableBits));
+    }
+
+    // 0 marks an empty slot, so a hash of 0 is stored as 1
+    private static void put(long[] keys, long[] values, long key, long value) {
+        if (key == 0L) key = 1L;
+        for (int slot = slot(key); ; slot = (slot + 1) & (keys.length - 1)) {
+            if (keys[slot] == key) return;
+            if (keys[slot] == 0L) {
+                keys[slot] = key;
+                values[slot] = value;
+                return;
+            }
+        }
+    }
+
+    private static long get(long[] keys, long[] values, long key) {
+        if (key == 0L) key = 1L;
+        for (int slot = slot(key); keys[slot] != 0L; slot = (slot + 1) & (keys.length - 1)) {
+            if (keys[slot] == key) return values[slot];
+        }
+        return -1L;
+    }
+
+    private static int read(RandomAccessFile raf, byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int c = raf.read(buffer, read, buffer.length - read);
+            if (c == -1) break;
+            read += c;
+        }
+        return read;
+    }
+
+    // the Wilson score interval, {estimate, low, high}
+    private static double[] interval(int hits, int n) {
+        if (n == 0) return new double[]{0.0, 0.0, 1.0};
+        double p = (double) hits / n;
+        double denominator = 1.0 + z * z / n;
+        double center = (p + z * z / (2.0 * n)) / denominator;
+        double half = z * Math.sqrt(p * (1.0 - p) / n + z * z / (4.0 * n * n)) / denominator;
+        return new double[]{p, Math.max(0.0, center - half), Math.min(1.0, center + half)};
+    }
+}
@@ -0,0 +1,135 @@
+package io.siggi.transformfile;
+
+import io.siggi.transformfile.io.ByteArrays;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Properties;
+
+public class TransformFileResumable {
+    private static final long checkpointInterval = 64L * 1024L * 1024L;
+    private static final long checkpointTime = 10000L;
+
+    public static File checkpointFile(File output) {
+        return new File(output.getPath() + ".checkpoint");
+    }
+
+    // writes the output of tf to output, picking up where a previous interrupted run left off if there's a checkpoint
+    // if verifyTail is more than 0, that many bytes before the checkpoint are compared to the transform before resuming
+    // outputs that aren't regular files, like /dev/null or a block device, are written without a checkpoint, as they
+    // can't be truncated and would keep what was there where runs of zeros are skipped
+    public static void transform(TransformFile tf, File output, long verifyTail) throws IOException {
+        boolean regularFile = !output.exists() || output.isFile();
+        File checkpoint = checkpointFile(output);
+        String identity = regularFile ? identity(tf) : null;
+        long resumeFrom = 0L;
+        if (regularFile && checkpoint.exists() && output.exists()) {
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(checkpoint)) {
+                properties.load(in);
+            }
+            if (identity.equals(properties.getProperty("xfr"))) {
+                resumeFrom = Math.min(output.length(), Long.parseLong(properties.getProperty("offset", "0")));
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(output, "rw")) {
+            FileChannel channel = raf.getChannel();
+            if (resumeFrom > 0L && verifyTail > 0L) {
+                resumeFrom = verifyTail(tf, channel, resumeFrom, verifyTail);
+            }
+            if (resumeFrom > 0L) {
+                System.err.println("Resuming from " + resumeFrom);
+            }
+            if (regularFile) raf.setLength(resumeFrom);
+            // a fresh unoptimized xfr would load all of its chunks to seek
+            if (tf.getFilePointer() != resumeFrom) tf.seek(resumeFrom);
+            if (regularFile) writeCheckpoint(checkpoint, identity, resumeFrom);
+            long position = resumeFrom;
+            long lastCheckpoint = position;
+            long lastCheckpointTime = System.currentTimeMillis();
+            byte[] buffer = new byte[1048576];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            int c;
+            while (true) {
+                // runs of zeros are left as holes, the length is set at the end in case the output ends with one
+                long skipped = regularFile ? tf.skipZeroFill() : 0L;
+                if (skipped > 0L) {
+                    position += skipped;
+                    continue;
+                }
+                if ((c = tf.read(buffer, 0, buffer.length)) == -1) break;
+                byteBuffer.clear().limit(c);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+                long now = System.currentTimeMillis();
+                if (regularFile && (position - lastCheckpoint >= checkpointInterval || now - lastCheckpointTime >= checkpointTime)) {
+                    channel.force(false);
+                    writeCheckpoint(checkpoint, identity, position);
+                    lastCheckpoint = position;
+                    lastCheckpointTime = now;
+                }
+            }
+            if (regularFile) {
+                raf.setLength(position);
+                channel.force(false);
+            }
+        }
+        if (regularFile) checkpoint.delete();
+    }
+
+    private static String identity(TransformFile tf) throws IOException {
+        String identity = tf.length() + ":" + tf.getFilename() + ":" + tf.getDependencyFiles().size() + ":" + tf.fingerprint();
+        if (tf.getIntegrity() != null) identity += ":" + Base64.getEncoder().encodeToString(tf.getIntegrity().getRoot());
+        return identity;
+    }
+
+    // returns the offset to resume from, which is before the first byte of the tail that doesn't match
+    private static long verifyTail(TransformFile tf, FileChannel channel, long resumeFrom, long verifyTail) throws IOException {
+        long start = Math.max(0L, resumeFrom - verifyTail);
+        tf.seek(start);
+        byte[] expected = new byte[65536];
+        byte[] actual = new byte[expected.length];
+        long position = start;
+        while (position < resumeFrom) {
+            int length = (int) Math.min(expected.length, resumeFrom - position);
+            int read = 0;
+            while (read < length) {
+                int c = tf.read(expected, read, length - read);
+                if (c == -1) return position;
+                read += c;
+            }
+            ByteBuffer byteBuffer = ByteBuffer.wrap(actual, 0, length);
+            while (byteBuffer.hasRemaining()) {
+                if (channel.read(byteBuffer, position + byteBuffer.position()) == -1) return position;
+            }
+            int mismatch = ByteArrays.mismatch(expected, 0, actual, 0, length);
+            if (mismatch != -1) {
+                System.err.println("Output doesn't match at " + (position + mismatch));
+                return position + mismatch;
+            }
+            position += length;
+        }
+        return resumeFrom;
+    }
+
+    private static void writeCheckpoint(File checkpoint, String identity, long offset) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("xfr", identity);
+        properties.setProperty("offset", Long.toString(offset));
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, null);
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,206 @@
+package io.siggi.transformfile;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.siggi.transformfile.exception.TransformFileException;
+import io.siggi.transformfile.io.FileHandlePool;
+import io.siggi.transformfile.io.LimitInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import static io.siggi.transformfile.io.Util.copy;
+
+public class TransformFileServer implements Closeable {
+    private final Map<String, TransformFile> files = new TreeMap<>();
+    private final FileHandlePool pool = new FileHandlePool();
+    private final HttpServer server;
+    private final ExecutorService executorService;
+
+    public TransformFileServer(File directory, InetSocketAddress address, int threads) throws IOException, TransformFileException {
+        boolean success = false;
+        try {
+            File[] xfrs = directory.listFiles((dir, name) -> name.endsWith(".xfr"));
+            if (xfrs == null) throw new IOException("Not a directory: " + directory);
+            for (File xfr : xfrs) {
+                TransformFile tf = TransformFile.open(xfr, pool);
+                String name = tf.getFilename();
+                if (name == null || name.isEmpty()) {
+                    name = xfr.getName().substring(0, xfr.getName().length() - 4);
+                }
+                if (files.containsKey(name)) {
+                    tf.close();
+                    System.err.println("Skipping " + xfr.getName() + ", " + name + " is already served by another xfr");
+                    continue;
+                }
+                files.put(name, tf);
+            }
+            executorService = createExecutorService(threads);
+            Semaphore permits = new Semaphore(threads);
+            Executor executor = command -> {
+                permits.acquireUninterruptibly();
+                try {
+                    executorService.execute(() -> {
+                        try {
+                            command.run();
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+            };
+            server = HttpServer.create(address, 0);
+            server.createContext("/", this::handle);
+            server.setExecutor(executor);
+            success = true;
+        } finally {
+            if (!success) close();
+        }
+    }
+
+    private static ExecutorService createExecutorService(int threads) {
+        try {
+            // Java 21+, the permits in the constructor keep the number of running requests bounded
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    public static void serve(File directory, int port, int threads) throws IOException, TransformFileException {
+        TransformFileServer server = new TransformFileServer(directory, new InetSocketAddress(port), threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+        System.out.println("Serving " + server.files.size() + " files on port " + port);
+        for (Map.Entry<String, TransformFile> entry : server.files.entrySet()) {
+            System.out.println("/" + entry.getKey() + " (" + entry.getValue().length() + " bytes)");
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) server.stop(0);
+        if (executorService != null) executorService.shutdownNow();
+        for (TransformFile tf : files.values()) {
+            try {
+                tf.close();
+            } catch (Exception e) {
+            }
+        }
+        pool.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            boolean head = method.equals("HEAD");
+            if (!head && !method.equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1L);
+                return;
+            }
+            String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), "UTF-8");
+            if (path.equals("/")) {
+                sendListing(exchange, head);
+                return;
+            }
+            TransformFile template = files.get(path.substring(1));
+            if (template == null) {
+                exchange.sendResponseHeaders(404, -1L);
+                return;
+            }
+            long length = template.length();
+            long start = 0L;
+            long end = length;
+            int status = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && range.startsWith("bytes=") && !range.contains(",")) {
+                long[] parsed = parseRange(range.substring(6).trim(), length);
+                if (parsed == null) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(416, -1L);
+                    return;
+                }
+                start = parsed[0];
+                end = parsed[1];
+                status = 206;
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (end - 1L) + "/" + length);
+            }
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            if (head) {
+                exchange.getResponseHeaders().set("Content-Length", Long.toString(end - start));
+                exchange.sendResponseHeaders(status, -1L);
+                return;
+            }
+            try (TransformFile tf = template.duplicate()) {
+                tf.seek(start);
+                exchange.sendResponseHeaders(status, end - start == 0L ? -1L : end - start);
+                try (OutputStream out = exchange.getResponseBody();
+                     InputStream in = new LimitInputStream(tf, end - start, false)) {
+                    copy(in, out);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // returns {start, end exclusive}, or null if the range can't be satisfied
+    private static long[] parseRange(String range, long length) {
+        int dash = range.indexOf("-");
+        if (dash < 0) return null;
+        try {
+            String first = range.substring(0, dash).trim();
+            String last = range.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0L || length == 0L) return null;
+                return new long[]{Math.max(0L, length - suffix), length};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length : Math.min(length, Long.parseLong(last) + 1L);
+            if (start >= length || end <= start) return null;
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void sendListing(HttpExchange exchange, boolean head) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, TransformFile> entry : files.entrySet()) {
+            sb.append(entry.getKey()).append("\t").append(entry.getValue().length()).append("\n");
+        }
+        byte[] listing = sb.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        if (head) {
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(listing.length));
+            exchange.sendResponseHeaders(200, -1L);
+            return;
+        }
+        exchange.sendResponseHeaders(200, listing.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(listing);
+        }
+    }
+}
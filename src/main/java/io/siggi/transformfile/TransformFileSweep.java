@@ -0,0 +1,137 @@
+package io.siggi.transformfile;
+
+import io.siggi.transformfile.io.RandomAccessData;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// transforms by going through each dependency once from start to end instead of reading in output order
+// chunks are sorted by where they read from and neighbouring ones are read as one extent, as long as the gap between
+// them is small enough that reading through it is cheaper than seeking, and the extent is written out to where
+// each chunk goes in the output
+// fill chunks of zeros aren't written at all, the output is truncated first so they're left as holes
+public class TransformFileSweep {
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024L * 1024L;
+    private static final long maxGap = 1048576L;
+
+    public static void transform(TransformFile tf, File output) throws IOException {
+        transform(tf, output, DEFAULT_MEMORY_BUDGET);
+    }
+
+    // memoryBudget is the largest extent read at once
+    public static void transform(TransformFile tf, File output, long memoryBudget) throws IOException {
+        if (tf.chunks == null) tf.loadChunks();
+        List<List<DataChunk>> byFile = new ArrayList<>();
+        for (int i = 0; i < tf.files.length; i++) {
+            byFile.add(new ArrayList<>());
+        }
+        List<DataChunk> outputCopies = new ArrayList<>();
+        List<DataChunk> fills = new ArrayList<>();
+        for (DataChunk chunk : tf.chunks) {
+            if (chunk.length == 0L) continue;
+            if (chunk.file == DataChunk.FILL) {
+                if (chunk.offset != 0L) fills.add(chunk);
+            } else if (chunk.file == DataChunk.OUTPUT) {
+                outputCopies.add(chunk);
+            } else {
+                byFile.get(chunk.file).add(chunk);
+            }
+        }
+        byte[] buffer = new byte[(int) Math.max(65536L, Math.min(memoryBudget, 1L << 30))];
+        try (RandomAccessFile raf = new RandomAccessFile(output, "rw")) {
+            FileChannel channel = raf.getChannel();
+            raf.setLength(0L);
+            raf.setLength(tf.length());
+            for (int file = 0; file < byFile.size(); file++) {
+                List<DataChunk> chunks = byFile.get(file);
+                if (chunks.isEmpty()) continue;
+                chunks.sort(Comparator.comparingLong(c -> c.offset));
+                RandomAccessData rad = file == 0 ? tf.rads[0] : tf.getRandomAccessData(file);
+                long base = file == 0 ? tf.dataFileOffset : 0L;
+                sweep(rad, base, chunks, channel, buffer);
+            }
+            for (DataChunk fill : fills) {
+                Arrays.fill(buffer, (byte) fill.offset);
+                for (long position = 0L; position < fill.length; ) {
+                    int amount = (int) Math.min(buffer.length, fill.length - position);
+                    write(channel, buffer, 0, amount, fill.transformedOffset + position);
+                    position += amount;
+                }
+            }
+            // these read finished output, and only output before themselves, so they go last and in order
+            for (DataChunk copy : outputCopies) {
+                for (long position = 0L; position < copy.length; ) {
+                    int amount = (int) Math.min(buffer.length, copy.length - position);
+                    read(channel, buffer, amount, copy.offset + position);
+                    write(channel, buffer, 0, amount, copy.transformedOffset + position);
+                    position += amount;
+                }
+            }
+        }
+    }
+
+    private static void sweep(RandomAccessData rad, long base, List<DataChunk> chunks, FileChannel channel, byte[] buffer) throws IOException {
+        int i = 0;
+        while (i < chunks.size()) {
+            DataChunk first = chunks.get(i);
+            if (first.length > buffer.length) {
+                // too big to share an extent with anything, so it's copied through the buffer on its own
+                for (long position = 0L; position < first.length; ) {
+                    int amount = (int) Math.min(buffer.length, first.length - position);
+                    readFully(rad, base + first.offset + position, buffer, amount);
+                    write(channel, buffer, 0, amount, first.transformedOffset + position);
+                    position += amount;
+                }
+                i++;
+                continue;
+            }
+            long start = first.offset;
+            long end = first.offset + first.length;
+            int last = i + 1;
+            while (last < chunks.size()) {
+                DataChunk next = chunks.get(last);
+                long nextEnd = Math.max(end, next.offset + next.length);
+                if (next.offset - end > maxGap || nextEnd - start > buffer.length) break;
+                end = nextEnd;
+                last++;
+            }
+            readFully(rad, base + start, buffer, (int) (end - start));
+            for (int j = i; j < last; j++) {
+                DataChunk chunk = chunks.get(j);
+                write(channel, buffer, (int) (chunk.offset - start), (int) chunk.length, chunk.transformedOffset);
+            }
+            i = last;
+        }
+    }
+
+    private static void readFully(RandomAccessData rad, long position, byte[] buffer, int amount) throws IOException {
+        rad.seek(position);
+        int done = 0;
+        while (done < amount) {
+            int c = rad.read(buffer, done, amount - done);
+            if (c == -1) throw new IOException("Unexpected end of dependency");
+            done += c;
+        }
+    }
+
+    private static void read(FileChannel channel, byte[] buffer, int amount, long position) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, amount);
+        while (byteBuffer.hasRemaining()) {
+            if (channel.read(byteBuffer, position + byteBuffer.position()) == -1)
+                throw new IOException("Unexpected end of output");
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] buffer, int offset, int amount, long position) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, amount);
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer, position + (byteBuffer.position() - offset));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package io.siggi.transformfile;
+
+import io.siggi.transformfile.exception.TransformFileException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TransformFileTreeComposer {
+    // how many old files a new file without a partner is searched against
+    private static final int maxFallbackOrigins = 16;
+
+    // writes outputDirectory/path.xfr for every file in newTree
+    // each file is composed against the file at the same path in oldTree, or one with the same content if it was
+    // renamed or moved, and only files without either are searched for in the unpaired old files most like them
+    // if manifest is true, outputDirectory/manifest.txt lists each file with its xfr, tab separated
+    public static void compose(ComposeOptions options, File oldTree, File newTree, File outputDirectory, int threads, boolean manifest) throws IOException, TransformFileException {
+        Map<String, File> oldFiles = listFiles(oldTree);
+        Map<String, File> newFiles = listFiles(newTree);
+        outputDirectory = outputDirectory.getAbsoluteFile();
+
+        Map<String, List<String>> origins = new TreeMap<>();
+        Set<String> pairedOld = new HashSet<>();
+        List<String> unpaired = new ArrayList<>();
+        for (String path : newFiles.keySet()) {
+            if (oldFiles.containsKey(path)) {
+                origins.put(path, Arrays.asList(path));
+                pairedOld.add(path);
+            } else {
+                unpaired.add(path);
+            }
+        }
+
+        // renames and moves, only files of the same size are hashed
+        Map<Long, List<String>> oldBySize = new HashMap<>();
+        for (Map.Entry<String, File> entry : oldFiles.entrySet()) {
+            if (pairedOld.contains(entry.getKey())) continue;
+            oldBySize.computeIfAbsent(entry.getValue().length(), k -> new ArrayList<>()).add(entry.getKey());
+        }
+        Map<String, String> oldHashes = new HashMap<>();
+        List<String> stillUnpaired = new ArrayList<>();
+        findRenames:
+        for (String path : unpaired) {
+            List<String> candidates = oldBySize.get(newFiles.get(path).length());
+            if (candidates != null) {
+                String hash = hash(newFiles.get(path));
+                for (String candidate : candidates) {
+                    String oldHash = oldHashes.get(candidate);
+                    if (oldHash == null) oldHashes.put(candidate, oldHash = hash(oldFiles.get(candidate)));
+                    if (oldHash.equals(hash)) {
+                        origins.put(path, Arrays.asList(candidate));
+                        pairedOld.add(candidate);
+                        candidates.remove(candidate);
+                        continue findRenames;
+                    }
+                }
+            }
+            stillUnpaired.add(path);
+        }
+
+        List<String> leftoverOld = new ArrayList<>();
+        for (String path : oldFiles.keySet()) {
+            if (!pairedOld.contains(path)) leftoverOld.add(path);
+        }
+        for (String path : stillUnpaired) {
+            origins.put(path, fallbackOrigins(path, newFiles.get(path).length(), leftoverOld, oldFiles));
+        }
+
+        System.out.println(newFiles.size() + " files, " + (newFiles.size() - stillUnpaired.size()) + " paired by path or content");
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            int count = origins.size();
+            int[] done = new int[1];
+            for (Map.Entry<String, List<String>> entry : origins.entrySet()) {
+                String path = entry.getKey();
+                File xfr = new File(outputDirectory, path + ".xfr");
+                File destination = newFiles.get(path);
+                List<String> originPaths = entry.getValue();
+                futures.add(executor.submit(() -> {
+                    composeFile(options, xfr, destination, originPaths, oldFiles);
+                    synchronized (done) {
+                        done[0] += 1;
+                        System.out.println("Composed " + path + " (" + done[0] + "/" + count + ")");
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof TransformFileException) throw (TransformFileException) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (manifest) {
+            try (OutputStream out = new FileOutputStream(new File(outputDirectory, "manifest.txt"))) {
+                for (String path : origins.keySet()) {
+                    out.write((path + "\t" + path + ".xfr\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    private static void composeFile(ComposeOptions options, File xfr, File destination, List<String> originPaths, Map<String, File> oldFiles) throws IOException, TransformFileException {
+        File directory = xfr.getAbsoluteFile().getParentFile();
+        // files in the same new directory are composed at the same time, so another thread may have just made it
+        if (!directory.mkdirs() && !directory.isDirectory())
+            throw new IOException("Could not create " + directory);
+        String[] originFiles = new String[originPaths.size()];
+        String[] fileNames = new String[originPaths.size()];
+        for (int i = 0; i < originFiles.length; i++) {
+            File origin = oldFiles.get(originPaths.get(i)).getAbsoluteFile();
+            originFiles[i] = origin.getPath();
+            // the xfr finds its dependencies relative to where it is
+            fileNames[i] = directory.toPath().normalize().relativize(origin.toPath().normalize()).toString().replace("\\", "/");
+        }
+        TransformFileComposer.compose(options, xfr.getPath(), destination.getPath(), fileNames, originFiles);
+    }
+
+    // unpaired old files with the same extension come first, then the closest in size
+    private static List<String> fallbackOrigins(String path, long size, List<String> leftoverOld, Map<String, File> oldFiles) {
+        String extension = extension(path);
+        List<String> candidates = new ArrayList<>(leftoverOld);
+        candidates.sort((a, b) -> {
+            boolean sameA = extension(a).equals(extension);
+            boolean sameB = extension(b).equals(extension);
+            if (sameA != sameB) return sameA ? -1 : 1;
+            return Long.compare(Math.abs(oldFiles.get(a).length() - size), Math.abs(oldFiles.get(b).length() - size));
+        });
+        return candidates.subList(0, Math.min(maxFallbackOrigins, candidates.size()));
+    }
+
+    private static String extension(String path) {
+        int slash = path.lastIndexOf("/");
+        int dot = path.lastIndexOf(".");
+        return dot > slash ? path.substring(dot) : "";
+    }
+
+    // relative paths with / separators to files
+    private static Map<String, File> listFiles(File root) throws IOException {
+        if (!root.isDirectory()) throw new IOException("Not a directory: " + root);
+        Map<String, File> files = new TreeMap<>();
+        listFiles(root, "", files);
+        return files;
+    }
+
+    private static void listFiles(File directory, String prefix, Map<String, File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) return;
+        for (File child : children) {
+            if (child.isDirectory()) {
+                listFiles(child, prefix + child.getName() + "/", files);
+            } else if (child.isFile()) {
+                files.put(prefix + child.getName(), child);
+            }
+        }
+    }
+
+    private static String hash(File file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[65536];
+            try (InputStream in = new FileInputStream(file)) {
+                int c;
+                while ((c = in.read(buffer, 0, buffer.length)) != -1) {
+                    digest.update(buffer, 0, c);
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package io.siggi.transformfile.io;
+
+// Java 9 and newer load the version in src/main/java9 from META-INF/versions/9 instead of this one.
+public final class ByteArrays {
+    private ByteArrays() {
+    }
+
+    // returns the index of the first byte that differs, or -1 if the ranges are identical
+    public static int mismatch(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) return i;
+        }
+        return -1;
+    }
+
+    // returns the position of needle relative to offset, or -1 if it doesn't start within the first count positions
+    public static int indexOf(byte[] haystack, int offset, int count, byte[] needle) {
+        outerLoop:
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[offset + i + j] != needle[j]) continue outerLoop;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,227 @@
+package io.siggi.transformfile.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// shares read only channels between everything opened through it, keeping at most maxOpen of them open
+// a channel is only closed while nobody is reading from it, channels without open handles go first, then the least
+// recently used ones, and a handle whose channel was closed opens it again on its next read
+public class FileHandlePool implements Closeable {
+    public static final int DEFAULT_MAX_OPEN = 256;
+    private final int maxOpen;
+    private final Map<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int openChannels = 0;
+    private boolean closed = false;
+
+    public FileHandlePool() {
+        this(DEFAULT_MAX_OPEN);
+    }
+
+    public FileHandlePool(int maxOpen) {
+        if (maxOpen < 1) throw new IllegalArgumentException("maxOpen must be at least 1");
+        this.maxOpen = maxOpen;
+    }
+
+    public int getMaxOpen() {
+        return maxOpen;
+    }
+
+    public synchronized int getOpenChannels() {
+        return openChannels;
+    }
+
+    public RandomAccessData open(File file) throws IOException {
+        file = file.getAbsoluteFile();
+        Entry entry;
+        synchronized (this) {
+            if (closed) throw new IOException("Already closed");
+            entry = entries.get(file);
+            if (entry == null) {
+                entries.put(file, entry = new Entry(file));
+            }
+            entry.handles += 1;
+        }
+        Handle handle = new Handle(entry);
+        boolean success = false;
+        try {
+            // open it now so a missing file fails here rather than on the first read
+            acquire(entry);
+            release(entry);
+            success = true;
+        } finally {
+            if (!success) handle.close();
+        }
+        return handle;
+    }
+
+    private synchronized FileChannel acquire(Entry entry) throws IOException {
+        if (closed) throw new IOException("Already closed");
+        entries.get(entry.file); // moves it to the most recently used end
+        if (entry.channel == null) {
+            evict();
+            entry.channel = new RandomAccessFile(entry.file, "r").getChannel();
+            openChannels += 1;
+        }
+        entry.inUse += 1;
+        return entry.channel;
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.inUse -= 1;
+    }
+
+    private synchronized void closeHandle(Entry entry) {
+        entry.handles -= 1;
+        if (entry.handles == 0 && entry.channel == null) {
+            entries.remove(entry.file);
+        }
+    }
+
+    private void evict() {
+        if (openChannels < maxOpen) return;
+        if (evict(true)) return;
+        evict(false);
+    }
+
+    private boolean evict(boolean unusedOnly) {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.channel == null || entry.inUse > 0) continue;
+            if (unusedOnly && entry.handles > 0) continue;
+            closeChannel(entry);
+            if (entry.handles == 0) it.remove();
+            return true;
+        }
+        return false;
+    }
+
+    private void closeChannel(Entry entry) {
+        try {
+            entry.channel.close();
+        } catch (Exception e) {
+        }
+        entry.channel = null;
+        openChannels -= 1;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Entry entry : entries.values()) {
+            if (entry.channel != null) closeChannel(entry);
+        }
+        entries.clear();
+    }
+
+    private static class Entry {
+        private final File file;
+        private FileChannel channel;
+        private int handles = 0;
+        private int inUse = 0;
+
+        private Entry(File file) {
+            this.file = file;
+        }
+    }
+
+    private class Handle implements RandomAccessData {
+        private final Entry entry;
+        private final byte[] one = new byte[1];
+        private long filePointer = 0L;
+        private boolean handleClosed = false;
+
+        private Handle(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int amount = read(one, 0, 1);
+            if (amount == -1) return -1;
+            return one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer) throws IOException {
+            return read(buffer, 0, buffer.length);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (handleClosed) throw new IOException("Already closed");
+            if (length == 0) return 0;
+            FileChannel channel = acquire(entry);
+            try {
+                int amount = channel.read(ByteBuffer.wrap(buffer, offset, length), filePointer);
+                if (amount > 0) filePointer += amount;
+                return amount;
+            } finally {
+                release(entry);
+            }
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            throw new IOException("Read-only channel");
+        }
+
+        @Override
+        public void write(byte[] buffer) throws IOException {
+            throw new IOException("Read-only channel");
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            throw new IOException("Read-only channel");
+        }
+
+        @Override
+        public long length() throws IOException {
+            if (handleClosed) throw new IOException("Already closed");
+            FileChannel channel = acquire(entry);
+            try {
+                return channel.size();
+            } finally {
+                release(entry);
+            }
+        }
+
+        @Override
+        public void setLength(long length) throws IOException {
+            throw new IOException("Read-only channel");
+        }
+
+        @Override
+        public void seek(long offset) throws IOException {
+            if (offset < 0) {
+                throw new IOException("Seek to negative offset");
+            }
+            filePointer = offset;
+        }
+
+        @Override
+        public long getFilePointer() throws IOException {
+            return filePointer;
+        }
+
+        // closing a handle only lets the pool close the channel first when it needs room
+        @Override
+        public boolean isCloseable() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (handleClosed) return;
+            handleClosed = true;
+            closeHandle(entry);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package io.siggi.transformfile.io;
+
+import java.io.InputStream;
+import java.util.Arrays;
+
+// length bytes of the same value
+public class FillInputStream extends InputStream {
+    private final byte value;
+    private long left;
+
+    public FillInputStream(int value, long length) {
+        if (length < 0L)
+            throw new IllegalArgumentException("Negative length");
+        this.value = (byte) value;
+        this.left = length;
+    }
+
+    @Override
+    public int read() {
+        if (left <= 0L) return -1;
+        left -= 1L;
+        return value & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) return 0;
+        if (left <= 0L) return -1;
+        length = (int) Math.min(length, left);
+        Arrays.fill(buffer, offset, offset + length, value);
+        left -= length;
+        return length;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0L) return 0L;
+        n = Math.min(n, left);
+        left -= n;
+        return n;
+    }
+}
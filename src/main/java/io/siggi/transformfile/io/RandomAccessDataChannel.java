@@ -0,0 +1,90 @@
+package io.siggi.transformfile.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class RandomAccessDataChannel implements RandomAccessData {
+    private final FileChannel channel;
+    private final boolean relayClose;
+    private final byte[] one = new byte[1];
+    private long filePointer = 0L;
+
+    public RandomAccessDataChannel(FileChannel channel) {
+        this(channel, false);
+    }
+
+    // positional reads never move the channel's own position, so any number of these can share one channel
+    public RandomAccessDataChannel(FileChannel channel, boolean relayClose) {
+        this.channel = channel;
+        this.relayClose = relayClose;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int amount = read(one, 0, 1);
+        if (amount == -1) return -1;
+        return one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer) throws IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        int amount = channel.read(ByteBuffer.wrap(buffer, offset, length), filePointer);
+        if (amount > 0) filePointer += amount;
+        return amount;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        throw new IOException("Read-only channel");
+    }
+
+    @Override
+    public void write(byte[] buffer) throws IOException {
+        throw new IOException("Read-only channel");
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        throw new IOException("Read-only channel");
+    }
+
+    @Override
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+        throw new IOException("Read-only channel");
+    }
+
+    @Override
+    public void seek(long offset) throws IOException {
+        if (offset < 0) {
+            throw new IOException("Seek to negative offset");
+        }
+        filePointer = offset;
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        return filePointer;
+    }
+
+    @Override
+    public boolean isCloseable() {
+        return relayClose;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (relayClose) channel.close();
+    }
+}
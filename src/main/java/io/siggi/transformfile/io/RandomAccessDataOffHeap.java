@@ -0,0 +1,203 @@
+package io.siggi.transformfile.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RandomAccessDataOffHeap implements RandomAccessData {
+    private static final int defaultSegmentSize = 4194304;
+    private final int segmentSize;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private long length = 0L;
+    private long filePointer = 0L;
+    private boolean closed = false;
+
+    public RandomAccessDataOffHeap() {
+        this(defaultSegmentSize);
+    }
+
+    public RandomAccessDataOffHeap(int segmentSize) {
+        if (segmentSize < 1) throw new IllegalArgumentException("segmentSize must be at least 1");
+        this.segmentSize = segmentSize;
+    }
+
+    // reads the stream straight into the segments, so nothing gets copied as it grows
+    public static RandomAccessDataOffHeap create(InputStream in) throws IOException {
+        RandomAccessDataOffHeap data = new RandomAccessDataOffHeap();
+        boolean success = false;
+        try {
+            data.readFrom(in);
+            success = true;
+        } finally {
+            if (!success) data.close();
+        }
+        return data;
+    }
+
+    private void readFrom(InputStream in) throws IOException {
+        byte[] buffer = new byte[65536];
+        while (true) {
+            ByteBuffer segment = segmentFor(length, true);
+            int position = (int) (length % segmentSize);
+            int c = in.read(buffer, 0, Math.min(buffer.length, segmentSize - position));
+            if (c == -1) break;
+            ByteBuffer view = segment.duplicate();
+            view.position(position);
+            view.put(buffer, 0, c);
+            length += c;
+        }
+    }
+
+    private ByteBuffer segmentFor(long position, boolean allocate) throws IOException {
+        if (closed) throw new IOException("Already closed");
+        int index = (int) (position / segmentSize);
+        while (allocate && segments.size() <= index) {
+            segments.add(ByteBuffer.allocateDirect(segmentSize));
+        }
+        return segments.get(index);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (filePointer >= length) return -1;
+        int value = segmentFor(filePointer, false).get((int) (filePointer % segmentSize)) & 0xff;
+        filePointer += 1L;
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer) throws IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        long remaining = this.length - filePointer;
+        if (remaining <= 0L) return -1;
+        length = (int) Math.min(length, remaining);
+        int done = 0;
+        while (done < length) {
+            ByteBuffer segment = segmentFor(filePointer, false).duplicate();
+            int position = (int) (filePointer % segmentSize);
+            int amount = Math.min(length - done, segmentSize - position);
+            segment.position(position);
+            segment.get(buffer, offset + done, amount);
+            done += amount;
+            filePointer += amount;
+        }
+        return length;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        segmentFor(filePointer, true).put((int) (filePointer % segmentSize), (byte) value);
+        filePointer += 1L;
+        length = Math.max(length, filePointer);
+    }
+
+    @Override
+    public void write(byte[] buffer) throws IOException {
+        write(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            ByteBuffer segment = segmentFor(filePointer, true).duplicate();
+            int position = (int) (filePointer % segmentSize);
+            int amount = Math.min(length - done, segmentSize - position);
+            segment.position(position);
+            segment.put(buffer, offset + done, amount);
+            done += amount;
+            filePointer += amount;
+        }
+        this.length = Math.max(this.length, filePointer);
+    }
+
+    @Override
+    public long length() throws IOException {
+        return length;
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+        if (length < 0L) throw new IOException("Negative length");
+        if (length > this.length) {
+            if (length > 0L) segmentFor(length - 1L, true);
+            // bytes past the old end can be left over from before a truncation
+            for (long position = this.length; position < length; ) {
+                ByteBuffer segment = segmentFor(position, false);
+                int start = (int) (position % segmentSize);
+                int end = (int) Math.min(segmentSize, start + (length - position));
+                for (int i = start; i < end; i++) segment.put(i, (byte) 0);
+                position += end - start;
+            }
+        } else {
+            int keep = (int) ((length + segmentSize - 1L) / segmentSize);
+            while (segments.size() > keep) {
+                release(segments.remove(segments.size() - 1));
+            }
+        }
+        this.length = length;
+        filePointer = Math.min(filePointer, length);
+    }
+
+    @Override
+    public void seek(long offset) throws IOException {
+        if (offset < 0) {
+            throw new IOException("Seek to negative offset");
+        }
+        this.filePointer = offset;
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        return filePointer;
+    }
+
+    @Override
+    public boolean isCloseable() {
+        return false;
+    }
+
+    // frees the memory right away instead of whenever the garbage collector gets to it
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        for (ByteBuffer segment : segments) {
+            release(segment);
+        }
+        segments.clear();
+        length = 0L;
+        filePointer = 0L;
+    }
+
+    private static void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) return;
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (Exception e) {
+        }
+        try {
+            // Java 8
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+        } catch (Exception e) {
+        }
+    }
+}
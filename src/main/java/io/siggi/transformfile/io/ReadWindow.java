@@ -0,0 +1,68 @@
+package io.siggi.transformfile.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class ReadWindow {
+    private static final int ALIGNMENT = 4096;
+    private final FileChannel channel;
+    private final byte[] buffer;
+    private final ByteBuffer byteBuffer;
+    private long start = 0L;
+    private int size = 0;
+
+    public ReadWindow(FileChannel channel, int capacity) {
+        if (capacity < ALIGNMENT * 2)
+            throw new IllegalArgumentException("Capacity too small");
+        this.channel = channel;
+        this.buffer = new byte[capacity];
+        this.byteBuffer = ByteBuffer.wrap(buffer);
+    }
+
+    public byte[] array() {
+        return buffer;
+    }
+
+    public int offsetOf(long position) {
+        return (int) (position - start);
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    // makes length bytes at position available in array() at offsetOf(position)
+    // returns how many bytes are available, which is less than length only at the end of the file
+    public int fill(long position, int length) throws IOException {
+        if (position < 0L)
+            throw new IOException("Negative position");
+        if (length > buffer.length - ALIGNMENT)
+            throw new IllegalArgumentException("Requested length larger than window");
+        long end = start + size;
+        if (position >= start && position + length <= end) {
+            return length;
+        }
+        long fileSize = channel.size();
+        if (position >= start && position <= end && end >= fileSize) {
+            return (int) Math.min(length, end - position);
+        }
+        long newStart = position - (position % ALIGNMENT);
+        if (newStart >= start && newStart < end) {
+            int keep = (int) (end - newStart);
+            System.arraycopy(buffer, (int) (newStart - start), buffer, 0, keep);
+            size = keep;
+        } else {
+            size = 0;
+        }
+        start = newStart;
+        while (size < buffer.length && start + size < fileSize) {
+            byteBuffer.limit(buffer.length);
+            byteBuffer.position(size);
+            int read = channel.read(byteBuffer, start + size);
+            if (read < 0) break;
+            size += read;
+        }
+        return (int) Math.max(0L, Math.min(length, start + size - position));
+    }
+}
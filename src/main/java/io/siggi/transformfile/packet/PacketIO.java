@@ -8,7 +8,10 @@ import io.siggi.transformfile.packet.types.PacketCloseFile;
 import io.siggi.transformfile.packet.types.PacketDataChunk;
 import io.siggi.transformfile.packet.types.PacketEnd;
 import io.siggi.transformfile.packet.types.PacketFileList;
+import io.siggi.transformfile.packet.types.PacketFillChunk;
 import io.siggi.transformfile.packet.types.PacketFileName;
+import io.siggi.transformfile.packet.types.PacketIntegrity;
+import io.siggi.transformfile.packet.types.PacketOutputChunk;
 import io.siggi.transformfile.packet.types.PacketParentDirectoryDistance;
 import io.siggi.transformfile.packet.types.PacketType;
 import java.io.IOException;
@@ -22,7 +25,11 @@ import java.util.function.Supplier;
 
 public final class PacketIO {
     private static final int DEFAULT_VERSION = 0;
-    private static final int HIGHEST_SUPPORTED_VERSION = 0;
+    private static final int HIGHEST_SUPPORTED_VERSION = 4;
+    public static final int INTEGRITY_VERSION = 1;
+    public static final int OUTPUT_CHUNK_VERSION = 2;
+    public static final int FILL_CHUNK_VERSION = 3;
+    public static final int TWO_LEVEL_INDEX_VERSION = 4;
 
     private final List<Class<? extends Packet>> packets = new ArrayList<>();
     private final List<Supplier<? extends Packet>> packetConstructors = new ArrayList<>();
@@ -46,6 +53,15 @@ public final class PacketIO {
         }
     }
 
+    // the default version, or protocolVersion if a newer one is needed for the packets being written
+    public static PacketIO getAtLeast(int protocolVersion) {
+        try {
+            return new PacketIO(Math.max(DEFAULT_VERSION, protocolVersion));
+        } catch (IncompatibleFileException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static PacketIO get(int protocolVersion) throws IncompatibleFileException {
         return new PacketIO(protocolVersion);
     }
@@ -61,6 +77,15 @@ public final class PacketIO {
         register(PacketParentDirectoryDistance.class, PacketParentDirectoryDistance::new);
         register(PacketCloseFile.class, PacketCloseFile::new);
         register(PacketOffsets.class, PacketOffsets::new);
+        if (protocolVersion >= INTEGRITY_VERSION) {
+            register(PacketIntegrity.class, PacketIntegrity::new);
+        }
+        if (protocolVersion >= OUTPUT_CHUNK_VERSION) {
+            register(PacketOutputChunk.class, PacketOutputChunk::new);
+        }
+        if (protocolVersion >= FILL_CHUNK_VERSION) {
+            register(PacketFillChunk.class, PacketFillChunk::new);
+        }
     }
 
     public int getProtocolVersion() {
@@ -78,7 +103,10 @@ public final class PacketIO {
     }
 
     public void write(OutputStream out, Packet packet) throws IOException {
-        Util.writeVarInt(out, packetTypeToPacketId.get(packet.getPacketType()));
+        Integer packetId = packetTypeToPacketId.get(packet.getPacketType());
+        if (packetId == null)
+            throw new IOException(packet.getPacketType() + " is not supported in version " + protocolVersion);
+        Util.writeVarInt(out, packetId);
         packet.write(out, protocolVersion);
     }
 
@@ -37,13 +37,15 @@ public class PacketDataChunk implements Packet {
     @Override
     public void write(OutputStream out, int protocolVersion) throws IOException {
         Util.writeVarInt(out, dataChunk.transformedOffset);
-        Util.writeVarInt(out, dataChunk.file);
+        if (dataChunk.file >= 0) Util.writeVarInt(out, dataChunk.file);
         Util.writeVarInt(out, dataChunk.offset);
         Util.writeVarInt(out, dataChunk.length);
     }
 
     @Override
     public PacketType getPacketType() {
+        if (dataChunk != null && dataChunk.file == DataChunk.OUTPUT) return PacketType.OUTPUT_CHUNK;
+        if (dataChunk != null && dataChunk.file == DataChunk.FILL) return PacketType.FILL_CHUNK;
         return PacketType.DATA_CHUNK;
     }
 
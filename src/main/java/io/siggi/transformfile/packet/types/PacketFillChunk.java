@@ -0,0 +1,32 @@
+package io.siggi.transformfile.packet.types;
+
+import io.siggi.transformfile.DataChunk;
+import io.siggi.transformfile.io.Util;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class PacketFillChunk extends PacketDataChunk {
+    public PacketFillChunk() {
+    }
+
+    @Override
+    public void read(InputStream in, int protocolVersion) throws IOException {
+        long transformedOffset = Util.readVarInt(in);
+        long value = Util.readVarInt(in);
+        long length = Util.readVarInt(in);
+        if (value < 0L || value > 255L)
+            throw new IOException("Invalid TransformFile - Fill chunk value " + value + " is not a byte");
+        setDataChunk(new DataChunk(transformedOffset, DataChunk.FILL, value, length));
+    }
+
+    @Override
+    public PacketType getPacketType() {
+        return PacketType.FILL_CHUNK;
+    }
+
+    @Override
+    public String toString() {
+        DataChunk dataChunk = getDataChunk();
+        return "FillChunk " + dataChunk.offset + " x " + dataChunk.length + " -> " + dataChunk.transformedOffset;
+    }
+}
@@ -0,0 +1,96 @@
+package io.siggi.transformfile.packet.types;
+
+import io.siggi.transformfile.io.Util;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class PacketIntegrity implements Packet {
+    private String algorithm;
+    private long blockSize;
+    private byte[][] blockHashes;
+    private byte[] root;
+
+    public PacketIntegrity() {
+    }
+
+    public PacketIntegrity(String algorithm, long blockSize, byte[][] blockHashes, byte[] root) {
+        setAlgorithm(algorithm);
+        setBlockSize(blockSize);
+        setBlockHashes(blockHashes);
+        setRoot(root);
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public long getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(long blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public byte[][] getBlockHashes() {
+        return blockHashes;
+    }
+
+    public void setBlockHashes(byte[][] blockHashes) {
+        this.blockHashes = blockHashes;
+    }
+
+    public byte[] getRoot() {
+        return root;
+    }
+
+    public void setRoot(byte[] root) {
+        this.root = root;
+    }
+
+    @Override
+    public void read(InputStream in, int protocolVersion) throws IOException {
+        algorithm = Util.readString(in, 64);
+        blockSize = Util.readVarInt(in);
+        long hashSize = Util.readVarInt(in);
+        long blockCount = Util.readVarInt(in);
+        if (blockSize < 1L || hashSize < 0L || hashSize > 128L || blockCount < 0L || blockCount > Integer.MAX_VALUE)
+            throw new IOException("Invalid TransformFile - Bad integrity packet");
+        root = Util.readBytes(in, (int) hashSize);
+        blockHashes = new byte[(int) blockCount][];
+        for (int i = 0; i < blockHashes.length; i++) {
+            blockHashes[i] = Util.readBytes(in, (int) hashSize);
+        }
+    }
+
+    @Override
+    public void write(OutputStream out, int protocolVersion) throws IOException {
+        Util.writeString(out, algorithm);
+        Util.writeVarInt(out, blockSize);
+        Util.writeVarInt(out, root.length);
+        Util.writeVarInt(out, blockHashes.length);
+        out.write(root);
+        for (byte[] hash : blockHashes) {
+            out.write(hash);
+        }
+    }
+
+    @Override
+    public PacketType getPacketType() {
+        return PacketType.INTEGRITY;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : root) {
+            sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+        }
+        return "Integrity " + algorithm + ", BlockSize: " + blockSize + ", Blocks: " + blockHashes.length + ", Root: " + sb;
+    }
+}
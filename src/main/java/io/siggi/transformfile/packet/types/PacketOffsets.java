@@ -1,6 +1,7 @@
 package io.siggi.transformfile.packet.types;
 
 import io.siggi.transformfile.io.Util;
+import io.siggi.transformfile.packet.PacketIO;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -11,6 +12,11 @@ public class PacketOffsets implements Packet {
     private long nonRedundantOffset;
     private long addressIndexOffset;
     private long resultSize;
+    // version 4 and later, 0 for indexStride is the version 0 index of one 8 byte entry per 131072 bytes
+    private long indexGranularity = DEFAULT_INDEX_GRANULARITY;
+    private int indexStride = 0;
+    private int indexTopCount = 0;
+    public static final long DEFAULT_INDEX_GRANULARITY = 131072L;
 
     public PacketOffsets() {
     }
@@ -37,6 +43,27 @@ public class PacketOffsets implements Packet {
         this.addressIndexOffset = addressIndexOffset;
     }
 
+    public long getIndexGranularity() {
+        return indexGranularity;
+    }
+
+    public int getIndexStride() {
+        return indexStride;
+    }
+
+    public int getIndexTopCount() {
+        return indexTopCount;
+    }
+
+    // a two level index, with an entry for every indexGranularity bytes of output, in groups of indexStride
+    public void setTwoLevelIndex(long indexGranularity, int indexStride, int indexTopCount) {
+        if (indexGranularity < 1L || indexStride < 1 || indexTopCount < 0)
+            throw new IllegalArgumentException("Invalid index layout");
+        this.indexGranularity = indexGranularity;
+        this.indexStride = indexStride;
+        this.indexTopCount = indexTopCount;
+    }
+
     public long getResultSize() {
         return resultSize;
     }
@@ -50,6 +77,16 @@ public class PacketOffsets implements Packet {
         nonRedundantOffset = Util.readVarInt(in);
         addressIndexOffset = Util.readVarInt(in);
         resultSize = Util.readVarInt(in);
+        if (protocolVersion >= PacketIO.TWO_LEVEL_INDEX_VERSION) {
+            indexGranularity = Util.readVarInt(in);
+            long stride = Util.readVarInt(in);
+            long topCount = Util.readVarInt(in);
+            // the top level is read into one array of 8 byte entries
+            if (indexGranularity < 1L || stride < 1L || stride > Integer.MAX_VALUE || topCount < 0L || topCount > Integer.MAX_VALUE / 8)
+                throw new IOException("Invalid TransformFile - Invalid address index layout");
+            indexStride = (int) stride;
+            indexTopCount = (int) topCount;
+        }
     }
 
     @Override
@@ -57,6 +94,13 @@ public class PacketOffsets implements Packet {
         Util.writeVarInt(out, nonRedundantOffset);
         Util.writeVarInt(out, addressIndexOffset);
         Util.writeVarInt(out, resultSize);
+        if (protocolVersion >= PacketIO.TWO_LEVEL_INDEX_VERSION) {
+            if (indexStride == 0)
+                throw new IOException("Version " + protocolVersion + " needs a two level index");
+            Util.writeVarInt(out, indexGranularity);
+            Util.writeVarInt(out, indexStride);
+            Util.writeVarInt(out, indexTopCount);
+        }
     }
 
     @Override
@@ -66,6 +110,7 @@ public class PacketOffsets implements Packet {
 
     @Override
     public String toString() {
-        return "Offsets NR:" + nonRedundantOffset + ", AI:" + addressIndexOffset + ", FileSize: " + resultSize;
+        return "Offsets NR:" + nonRedundantOffset + ", AI:" + addressIndexOffset + ", FileSize: " + resultSize
+            + (indexStride == 0 ? "" : ", Index: " + indexGranularity + "x" + indexStride + "x" + indexTopCount);
     }
 }
@@ -0,0 +1,32 @@
+package io.siggi.transformfile.packet.types;
+
+import io.siggi.transformfile.DataChunk;
+import io.siggi.transformfile.io.Util;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class PacketOutputChunk extends PacketDataChunk {
+    public PacketOutputChunk() {
+    }
+
+    @Override
+    public void read(InputStream in, int protocolVersion) throws IOException {
+        long transformedOffset = Util.readVarInt(in);
+        long offset = Util.readVarInt(in);
+        long length = Util.readVarInt(in);
+        if (offset + length > transformedOffset)
+            throw new IOException("Invalid TransformFile - Output chunk reads output that comes after it");
+        setDataChunk(new DataChunk(transformedOffset, DataChunk.OUTPUT, offset, length));
+    }
+
+    @Override
+    public PacketType getPacketType() {
+        return PacketType.OUTPUT_CHUNK;
+    }
+
+    @Override
+    public String toString() {
+        DataChunk dataChunk = getDataChunk();
+        return "OutputChunk " + dataChunk.offset + ":" + dataChunk.length + " -> " + dataChunk.transformedOffset;
+    }
+}
@@ -7,5 +7,8 @@ public enum PacketType {
     PARENT_DIRECTORY_DISTANCE,
     CLOSE_FILE,
     OFFSETS,
+    INTEGRITY,
+    OUTPUT_CHUNK,
+    FILL_CHUNK,
     END;
 }
@@ -0,0 +1,24 @@
+package io.siggi.transformfile.io;
+
+import java.util.Arrays;
+
+public final class ByteArrays {
+    private ByteArrays() {
+    }
+
+    public static int mismatch(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        return Arrays.mismatch(a, aOffset, aOffset + length, b, bOffset, bOffset + length);
+    }
+
+    public static int indexOf(byte[] haystack, int offset, int count, byte[] needle) {
+        if (needle.length == 0) return count > 0 ? 0 : -1;
+        byte first = needle[0];
+        int rest = needle.length - 1;
+        for (int i = 0; i < count; i++) {
+            if (haystack[offset + i] != first) continue;
+            int position = offset + i + 1;
+            if (Arrays.mismatch(haystack, position, position + rest, needle, 1, needle.length) == -1) return i;
+        }
+        return -1;
+    }
+}